@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+
+public class TestForecastListSnapshot extends AndroidTestCase {
+
+    private static final int DAYS = 3;
+
+    private SharedPreferences mPrefs;
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnits = mPrefs.getString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_metric));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().putString(mContext.getString(R.string.pref_units_key), mUnits).commit();
+        super.tearDown();
+    }
+
+    private ForecastSnapshot createForecast() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ArrayList<ForecastSnapshot.Day> days = new ArrayList<ForecastSnapshot.Day>();
+        for (int i = 0; i < DAYS; i++) {
+            days.add(new ForecastSnapshot.Day(i, today + i * 1000L * 60 * 60 * 24, 321,
+                    "Asteroids", 75 + i, 65 - i, 1.2f, 1.3f, 5.5f, 1.1f));
+        }
+        return new ForecastSnapshot(Utility.getPreferredLocation(mContext), today, 64.7488,
+                -147.353, days);
+    }
+
+    public void testWriteThenRead() {
+        ForecastSnapshot forecast = createForecast();
+        ForecastListSnapshot.write(mContext, forecast);
+
+        ForecastListSnapshot snapshot = ForecastListSnapshot.read(mContext);
+        assertNotNull("Error: The snapshot that was just written couldn't be read", snapshot);
+        assertEquals(DAYS, snapshot.size());
+        assertEquals(Utility.getFriendlyDayString(mContext, forecast.get(0).date, true),
+                snapshot.getTodayText());
+        for (int i = 0; i < DAYS; i++) {
+            ForecastSnapshot.Day day = forecast.get(i);
+            ForecastListSnapshot.Row row = snapshot.get(i);
+            assertEquals(day.date, row.date);
+            assertEquals(day.weatherId, row.weatherId);
+            assertEquals(Utility.getFriendlyDayString(mContext, day.date, false), row.dateText);
+            assertEquals(Utility.formatTemperature(mContext, day.maxTemp), row.high);
+            assertEquals(Utility.formatTemperature(mContext, day.minTemp), row.low);
+        }
+    }
+
+    public void testUnitsChangeDiscardsSnapshot() {
+        ForecastListSnapshot.write(mContext, createForecast());
+        String otherUnits = Utility.isMetric(mContext)
+                ? mContext.getString(R.string.pref_units_imperial)
+                : mContext.getString(R.string.pref_units_metric);
+        mPrefs.edit().putString(mContext.getString(R.string.pref_units_key), otherUnits).commit();
+
+        assertNull("Error: Temperatures formatted in other units must not be shown",
+                ForecastListSnapshot.read(mContext));
+    }
+
+    public void testEmptyForecastRemovesSnapshot() {
+        ForecastListSnapshot.write(mContext, createForecast());
+        ForecastListSnapshot.write(mContext, new ForecastSnapshot(
+                Utility.getPreferredLocation(mContext), 0, 0, 0,
+                new ArrayList<ForecastSnapshot.Day>()));
+
+        assertNull(ForecastListSnapshot.read(mContext));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+
+import java.util.List;
+
+public class TestCityIndex extends AndroidTestCase {
+
+    private static final int LOOKUPS = 1000;
+
+    private CityIndex mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mIndex = CityIndex.getInstance(mContext);
+        assertNotNull("Error: The city index couldn't be built from " + CityIndex.ASSET, mIndex);
+    }
+
+    public void testSuggestionsStartWithPrefix() {
+        List<CityIndex.City> cities = mIndex.suggest("San ", 10);
+        assertFalse("Error: No suggestions for \"San \"", cities.isEmpty());
+        String previous = "";
+        for (CityIndex.City city : cities) {
+            String key = CityIndex.normalize(city.getDisplayName());
+            assertTrue("Error: " + city + " doesn't start with the prefix", key.startsWith("san "));
+            assertTrue("Error: Suggestions aren't sorted", previous.compareTo(key) <= 0);
+            previous = key;
+        }
+        assertTrue(mIndex.suggest("San ", 2).size() <= 2);
+    }
+
+    public void testCaseAndAccentsAreIgnored() {
+        List<CityIndex.City> cities = mIndex.suggest("SAO PAU", 10);
+        assertEquals(1, cities.size());
+        assertEquals("São Paulo", cities.get(0).name);
+        assertEquals("BR", cities.get(0).country);
+    }
+
+    public void testFindResolvesCoordinates() {
+        CityIndex.City city = mIndex.find("Mountain View, US");
+        assertNotNull("Error: A bundled city couldn't be found", city);
+        assertEquals(37.39, city.latitude, 0.01);
+        assertEquals(-122.08, city.longitude, 0.01);
+        assertEquals(5375480, city.owmId);
+
+        assertNull("Error: A prefix of a city was found as a city", mIndex.find("Mountain"));
+        assertNull(mIndex.find("Nowhere In Particular, ZZ"));
+    }
+
+    public void testSuggestionsAreFast() {
+        String[] prefixes = {"s", "san", "new y", "lon", "zzz", "mountain view, us"};
+        // Warm up the mapping
+        mIndex.suggest("a", 8);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            mIndex.suggest(prefixes[i % prefixes.length], 8);
+        }
+        long averageMicros = (System.nanoTime() - start) / LOOKUPS / 1000;
+        assertTrue("Error: Suggestions took " + averageMicros + "us on average",
+                averageMicros < 1000);
+    }
+}
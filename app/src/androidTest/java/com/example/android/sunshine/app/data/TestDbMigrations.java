@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+public class TestDbMigrations extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbMigrations.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+    private static final int LARGE_LOCATION_COUNT = 200;
+    private static final int LARGE_DAY_COUNT = 100;
+
+    // A database from before the migrations, here with its dates stored as text
+    private static final String[] VERSION_1 = {
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY, location_setting TEXT UNIQUE NOT NULL,"
+                    + " city_name TEXT NOT NULL, coord_lat REAL NOT NULL,"
+                    + " coord_long REAL NOT NULL);",
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + " location_id INTEGER NOT NULL, date TEXT NOT NULL,"
+                    + " short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+                    + " min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL,"
+                    + " pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL,"
+                    + " FOREIGN KEY (location_id) REFERENCES location (_id),"
+                    + " UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+    };
+
+    // The schema as version 2 of the database had it, the first the migrations start from
+    private static final String[] VERSION_2 = {
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL,"
+                    + " city_name TEXT NOT NULL, coord_lat REAL NOT NULL,"
+                    + " coord_long REAL NOT NULL  );",
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "location_id INTEGER NOT NULL, date INTEGER NOT NULL,"
+                    + " short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+                    + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL,"
+                    + " pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL,"
+                    + "  FOREIGN KEY (location_id) REFERENCES location (_id), "
+                    + " UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /*
+        Creates the database a device on the given version has, with the weather for the given
+        number of locations and days.
+     */
+    private void createFixture(int version, int locationCount, int dayCount) {
+        File file = mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME);
+        file.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.beginTransaction();
+        try {
+            for (String sql : version < WeatherDbHelper.MIN_MIGRATABLE_VERSION
+                    ? VERSION_1 : VERSION_2) {
+                db.execSQL(sql);
+            }
+            for (WeatherDbHelper.Migration migration : WeatherDbHelper.MIGRATIONS) {
+                if (migration.version <= version) {
+                    migration.migrate(db);
+                }
+            }
+            for (int i = 0; i < locationCount; i++) {
+                db.execSQL("INSERT INTO location VALUES (?, ?, ?, ?, ?)", new Object[]{
+                        i + 1, "location " + i, "City " + i, i % 90, i % 180});
+                for (int j = 0; j < dayCount; j++) {
+                    db.execSQL("INSERT INTO weather (location_id, date, short_desc, weather_id,"
+                            + " min, max, humidity, pressure, wind, degrees)"
+                            + " VALUES (?, ?, 'Clouds', 803, ?, ?, 70, 1013, 5.5, 180)",
+                            new Object[]{i + 1, WeatherContract.normalizeDate(j * DAY_IN_MILLIS),
+                                    j % 20, j % 20 + 10});
+                }
+            }
+            db.setVersion(version);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            db.close();
+        }
+    }
+
+    private static Set<String> getSchema(SQLiteDatabase db) {
+        HashSet<String> schema = new HashSet<String>();
+        Cursor cursor = db.rawQuery("SELECT type, name FROM sqlite_master", null);
+        while (cursor.moveToNext()) {
+            schema.add(cursor.getString(0) + " " + cursor.getString(1));
+        }
+        cursor.close();
+        for (String table : new String[]{"location", "weather"}) {
+            cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            while (cursor.moveToNext()) {
+                schema.add(table + "." + cursor.getString(cursor.getColumnIndex("name")) + " "
+                        + cursor.getString(cursor.getColumnIndex("type")));
+            }
+            cursor.close();
+        }
+        return schema;
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        Set<String> expected = getSchema(dbHelper.getReadableDatabase());
+        dbHelper.close();
+
+        for (int version = 1; version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+            createFixture(version, 2, 3);
+
+            dbHelper = new WeatherDbHelper(mContext);
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Error: The schema upgraded from version " + version
+                    + " isn't the one new installs get", expected, getSchema(db));
+
+            long expectedRows = version < WeatherDbHelper.MIN_MIGRATABLE_VERSION ? 0 : 2 * 3;
+            assertEquals("Error: Upgrading from version " + version + " lost weather",
+                    expectedRows, DatabaseUtils.queryNumEntries(db, "weather"));
+            dbHelper.close();
+        }
+    }
+
+    public void testForecastQueryUsesIndex() {
+        createFixture(WeatherDbHelper.MIN_MIGRATABLE_VERSION, 2, 3);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN"
+                + " SELECT * FROM weather INNER JOIN location"
+                + " ON weather.location_id = location._id"
+                + " WHERE location.location_setting = ? AND date >= ?",
+                new String[]{"location 0", "0"});
+        StringBuilder plan = new StringBuilder();
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(cursor.getColumnIndex("detail"))).append('\n');
+        }
+        cursor.close();
+        dbHelper.close();
+        assertTrue("Error: The forecast query doesn't use the index:\n" + plan,
+                plan.indexOf(WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE) >= 0);
+    }
+
+    public void testLargeUpgradeTime() {
+        createFixture(WeatherDbHelper.MIN_MIGRATABLE_VERSION, LARGE_LOCATION_COUNT,
+                LARGE_DAY_COUNT);
+
+        long start = System.nanoTime();
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long millis = (System.nanoTime() - start) / 1000000;
+        Log.i(LOG_TAG, "Upgraded " + LARGE_LOCATION_COUNT * LARGE_DAY_COUNT
+                + " weather rows from version " + WeatherDbHelper.MIN_MIGRATABLE_VERSION
+                + " in " + millis + "ms");
+
+        assertEquals(LARGE_LOCATION_COUNT * LARGE_DAY_COUNT,
+                DatabaseUtils.queryNumEntries(db, "weather"));
+        dbHelper.close();
+        assertTrue("Error: The upgrade took " + millis + "ms", millis < 5000);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+public class TestForecastBatch extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+    private static final int DAYS = 14;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private static ForecastBatch createBatch(long locationId) {
+        // Starts small, so that adding the days has to grow it
+        ForecastBatch batch = new ForecastBatch(locationId, 1);
+        for (int i = 0; i < DAYS; i++) {
+            batch.add(TestUtilities.TEST_DATE + i * DAY_IN_MILLIS, 800 + i % 3,
+                    i % 2 == 0 ? "Clear" : "Clouds", 20 + i, 10 + i, 50 + i, 1000 + i, 1.5 * i,
+                    10 * i);
+        }
+        return batch;
+    }
+
+    public void testColumns() {
+        ForecastBatch batch = createBatch(7);
+        assertEquals(DAYS, batch.size());
+        assertEquals(7, batch.getLocationId());
+        for (int i = 0; i < DAYS; i++) {
+            assertEquals(TestUtilities.TEST_DATE + i * DAY_IN_MILLIS, batch.getDate(i));
+            assertEquals(800 + i % 3, batch.getWeatherId(i));
+            assertEquals(i % 2 == 0 ? "Clear" : "Clouds", batch.getShortDesc(i));
+            assertEquals(20.0 + i, batch.getMaxTemp(i));
+            assertEquals(10.0 + i, batch.getMinTemp(i));
+            assertEquals(50.0 + i, batch.getHumidity(i));
+            assertEquals(1000.0 + i, batch.getPressure(i));
+            assertEquals(1.5 * i, batch.getWindSpeed(i));
+            assertEquals(10.0 * i, batch.getDegrees(i));
+        }
+
+        ContentValues[] values = batch.toContentValues();
+        assertEquals(DAYS, values.length);
+        assertEquals(Long.valueOf(7),
+                values[3].getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+        assertEquals("Clouds", values[3].getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC));
+        assertEquals(23.0, values[3].getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+    }
+
+    public void testInsert() {
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ForecastBatch batch = createBatch(locationId);
+        assertEquals(DAYS, batch.insert(mContext.getContentResolver()));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(DAYS, cursor.getCount());
+        ContentValues[] expected = batch.toContentValues();
+        for (int i = 0; i < DAYS; i++) {
+            cursor.moveToPosition(i);
+            expected[i].put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(batch.getDate(i)));
+            TestUtilities.validateCurrentRecord("Error: Day " + i + " wasn't stored as added",
+                    cursor, expected[i]);
+        }
+        cursor.close();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+public class TestForecastRepository extends AndroidTestCase {
+
+    private static final int DAYS = 5;
+
+    private ForecastRepository mRepository;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = Long.parseLong(locationUri.getLastPathSegment());
+
+        // The repository only holds current and future days, so use dates starting today
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationRowId);
+            values[i].put(WeatherEntry.COLUMN_DATE, today + i * 1000L * 60 * 60 * 24);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        mRepository = new ForecastRepository(mContext);
+    }
+
+    public void testForecastIsLoadedOnce() {
+        assertNull("Error: Nothing should be cached before the first load",
+                mRepository.getCachedForecast(TestUtilities.TEST_LOCATION));
+
+        ForecastSnapshot first = mRepository.getForecast(TestUtilities.TEST_LOCATION);
+        assertEquals("Error: Forecast didn't contain every day", DAYS, first.size());
+        assertEquals(64.7488, first.getCoordLat(), 0.0001);
+
+        ForecastSnapshot second = mRepository.getForecast(TestUtilities.TEST_LOCATION);
+        assertSame("Error: A second load should be served from the same snapshot", first, second);
+        assertSame(first, mRepository.getCachedForecast(TestUtilities.TEST_LOCATION));
+    }
+
+    public void testChangeForOtherLocationKeepsSnapshot() {
+        ForecastSnapshot snapshot = mRepository.getForecast(TestUtilities.TEST_LOCATION);
+
+        mRepository.invalidate(ForecastRepository.getLocationSettingFromUri(
+                WeatherEntry.buildWeatherLocation("somewhere-else")));
+        assertSame(snapshot, mRepository.getCachedForecast(TestUtilities.TEST_LOCATION));
+
+        mRepository.invalidate(ForecastRepository.getLocationSettingFromUri(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION)));
+        assertNull(mRepository.getCachedForecast(TestUtilities.TEST_LOCATION));
+    }
+
+    public void testProviderChangeInvalidatesSnapshot() {
+        mRepository.getForecast(TestUtilities.TEST_LOCATION);
+
+        // A bulk insert notifies the whole weather uri, which concerns every location
+        mContext.getContentResolver().notifyChange(WeatherEntry.CONTENT_URI, null);
+
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return null == mRepository.getCachedForecast(TestUtilities.TEST_LOCATION);
+            }
+        }.run();
+    }
+}
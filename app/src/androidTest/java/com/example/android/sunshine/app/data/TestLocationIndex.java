@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+public class TestLocationIndex extends AndroidTestCase {
+
+    private static final double RADIUS_METERS = 5000;
+
+    private LocationIndex createIndex() {
+        ArrayList<LocationIndex.Location> locations = new ArrayList<LocationIndex.Location>();
+        locations.add(new LocationIndex.Location(1, "94043", 37.39, -122.08));
+        locations.add(new LocationIndex.Location(2, "Palo Alto, US", 37.44, -122.14));
+        locations.add(new LocationIndex.Location(3, "London, GB", 51.51, -0.13));
+        locations.add(new LocationIndex.Location(4, "Taveuni, FJ", -16.80, 179.97));
+        locations.add(new LocationIndex.Location(5, TestUtilities.TEST_LOCATION, 64.7488, -147.353));
+        return new LocationIndex(locations);
+    }
+
+    public void testNearestWithinRadius() {
+        LocationIndex index = createIndex();
+
+        // An address in Mountain View, as the Place Picker would give it
+        LocationIndex.Location nearest = index.findNearest(37.386, -122.084, RADIUS_METERS);
+        assertNotNull("Error: A location 1km away wasn't found", nearest);
+        assertEquals(1, nearest.id);
+
+        nearest = index.findNearest(51.50, -0.12, RADIUS_METERS);
+        assertNotNull(nearest);
+        assertEquals("London, GB", nearest.locationSetting);
+    }
+
+    public void testNothingOutsideRadius() {
+        LocationIndex index = createIndex();
+        // San Francisco is 50km from either location on the peninsula
+        assertNull(index.findNearest(37.77, -122.42, RADIUS_METERS));
+        assertNull(new LocationIndex(new ArrayList<LocationIndex.Location>())
+                .findNearest(37.39, -122.08, RADIUS_METERS));
+    }
+
+    public void testAcrossAntimeridian() {
+        LocationIndex index = createIndex();
+        // Just across the antimeridian from Taveuni, about 4km away
+        LocationIndex.Location nearest = index.findNearest(-16.80, -179.99, RADIUS_METERS);
+        assertNotNull(nearest);
+        assertEquals(4, nearest.id);
+    }
+
+    public void testDistance() {
+        // London to Paris is about 344km
+        assertEquals(344000, LocationIndex.distanceMeters(51.51, -0.13, 48.85, 2.35), 5000);
+        assertEquals(0, LocationIndex.distanceMeters(37.39, -122.08, 37.39, -122.08), 0.001);
+    }
+
+    public void testMatchesLinearScan() {
+        Random random = new Random(42);
+        ArrayList<LocationIndex.Location> locations = new ArrayList<LocationIndex.Location>();
+        for (int i = 0; i < 200; i++) {
+            locations.add(new LocationIndex.Location(i, "location " + i,
+                    random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180));
+        }
+        LocationIndex index = new LocationIndex(locations);
+        assertEquals(locations.size(), index.size());
+
+        for (int i = 0; i < 100; i++) {
+            double lat = random.nextDouble() * 180 - 90;
+            double lon = random.nextDouble() * 360 - 180;
+            double radius = 2000000;
+
+            LocationIndex.Location expected = null;
+            double expectedDistance = radius;
+            for (LocationIndex.Location location : locations) {
+                double distance =
+                        LocationIndex.distanceMeters(lat, lon, location.latitude, location.longitude);
+                if (distance <= expectedDistance) {
+                    expectedDistance = distance;
+                    expected = location;
+                }
+            }
+
+            LocationIndex.Location nearest = index.findNearest(lat, lon, radius);
+            if (null == expected) {
+                assertNull(nearest);
+            } else {
+                assertNotNull("Error: The tree missed " + expected.locationSetting, nearest);
+                assertEquals(expectedDistance, LocationIndex.distanceMeters(lat, lon,
+                        nearest.latitude, nearest.longitude), 0.001);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+public class TestWeatherSnapshotFile extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+
+    private ForecastSnapshot createForecast(String location, long firstDay, int days) {
+        ArrayList<ForecastSnapshot.Day> list = new ArrayList<ForecastSnapshot.Day>();
+        for (int i = 0; i < days; i++) {
+            list.add(new ForecastSnapshot.Day(i, firstDay + i * DAY_IN_MILLIS, 800 + i,
+                    "Clear", 20.5 + i, 10.25 - i, 80f, 1013.5f, 4.5f, 270f));
+        }
+        return new ForecastSnapshot(location, firstDay, 0, 0, list);
+    }
+
+    public void testWriteThenOpen() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ForecastSnapshot forecast = createForecast(TestUtilities.TEST_LOCATION, today, 7);
+        WeatherSnapshotFile.write(mContext, forecast);
+
+        WeatherSnapshotFile snapshot = WeatherSnapshotFile.open(mContext, TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: The snapshot that was just written couldn't be opened", snapshot);
+        assertEquals(TestUtilities.TEST_LOCATION, snapshot.getLocationSetting());
+        assertEquals(7, snapshot.getDayCount());
+        assertEquals(0, snapshot.getToday());
+        for (int i = 0; i < forecast.size(); i++) {
+            ForecastSnapshot.Day day = forecast.get(i);
+            assertEquals(day.date, snapshot.getDate(i));
+            assertEquals(day.weatherId, snapshot.getWeatherId(i));
+            assertEquals(day.maxTemp, snapshot.getHigh(i), 0.001);
+            assertEquals(day.minTemp, snapshot.getLow(i), 0.001);
+            assertEquals(day.humidity, snapshot.getHumidity(i), 0.001);
+            assertEquals(day.pressure, snapshot.getPressure(i), 0.001);
+            assertEquals(day.windSpeed, snapshot.getWindSpeed(i), 0.001);
+            assertEquals(day.degrees, snapshot.getWindDirection(i), 0.001);
+        }
+    }
+
+    public void testPastDaysAreSkipped() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        WeatherSnapshotFile.write(mContext,
+                createForecast(TestUtilities.TEST_LOCATION, today - 2 * DAY_IN_MILLIS, 5));
+
+        WeatherSnapshotFile snapshot = WeatherSnapshotFile.open(mContext, TestUtilities.TEST_LOCATION);
+        assertEquals(2, snapshot.getToday());
+        assertEquals(today, snapshot.getDate(snapshot.getToday()));
+    }
+
+    public void testLocationsAreKeptApart() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        String other = "Mountain View, CA/94043";
+        WeatherSnapshotFile.write(mContext, createForecast(TestUtilities.TEST_LOCATION, today, 3));
+        WeatherSnapshotFile.write(mContext, createForecast(other, today, 5));
+
+        assertEquals(3, WeatherSnapshotFile.open(mContext, TestUtilities.TEST_LOCATION).getDayCount());
+        assertEquals(5, WeatherSnapshotFile.open(mContext, other).getDayCount());
+        assertNull(WeatherSnapshotFile.open(mContext, "nowhere in particular"));
+    }
+
+    private void writeFile(File file, byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static ByteBuffer createHeader(int capacity, int locationLength, int dayCount) {
+        ByteBuffer buffer = ByteBuffer.allocate(capacity);
+        buffer.putInt(0x53554E57).putInt(1).putLong(System.currentTimeMillis())
+                .putShort((short) locationLength);
+        if (buffer.remaining() >= 4) {
+            buffer.putInt(dayCount);
+        }
+        return buffer;
+    }
+
+    public void testCorruptFilesAreNoSnapshot() throws IOException {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        WeatherSnapshotFile.write(mContext, createForecast(TestUtilities.TEST_LOCATION, today, 3));
+        File file = WeatherSnapshotFile.getFile(mContext, TestUtilities.TEST_LOCATION);
+
+        // Cut off within the header
+        writeFile(file, new byte[]{0x53, 0x55, 0x4E, 0x57, 0, 0});
+        assertNull(WeatherSnapshotFile.open(mContext, TestUtilities.TEST_LOCATION));
+
+        // A location longer than the file
+        writeFile(file, createHeader(4 + 4 + 8 + 2 + 4, 1000, 0).array());
+        assertNull(WeatherSnapshotFile.open(mContext, TestUtilities.TEST_LOCATION));
+
+        // A location length that was written as a negative short
+        writeFile(file, createHeader(4 + 4 + 8 + 2 + 4, 0xffff, 0).array());
+        assertNull(WeatherSnapshotFile.open(mContext, TestUtilities.TEST_LOCATION));
+
+        // More days than the file holds, and more than fit in an int's worth of bytes
+        writeFile(file, createHeader(4 + 4 + 8 + 2 + 4 + WeatherSnapshotFile.DAY_SIZE, 0, 2)
+                .array());
+        assertNull(WeatherSnapshotFile.open(mContext, TestUtilities.TEST_LOCATION));
+        writeFile(file, createHeader(4 + 4 + 8 + 2 + 4, 0, Integer.MAX_VALUE / 2).array());
+        assertNull(WeatherSnapshotFile.open(mContext, TestUtilities.TEST_LOCATION));
+        writeFile(file, createHeader(4 + 4 + 8 + 2 + 4, 0, -1).array());
+        assertNull(WeatherSnapshotFile.open(mContext, TestUtilities.TEST_LOCATION));
+
+        // Rewriting it fixes it
+        WeatherSnapshotFile.write(mContext, createForecast(TestUtilities.TEST_LOCATION, today, 3));
+        assertEquals(3, WeatherSnapshotFile.open(mContext, TestUtilities.TEST_LOCATION)
+                .getDayCount());
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.gcm;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class TestForecastDelta extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+
+    private String mLocationSetting;
+    private long mLocationId;
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        mLocationSetting = Utility.getPreferredLocation(mContext);
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, mLocationSetting);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int i = 0; i < 2; i++) {
+            ContentValues weather = new ContentValues();
+            weather.put(WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+            weather.put(WeatherEntry.COLUMN_DATE, mToday + i * DAY_IN_MILLIS);
+            weather.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            weather.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            weather.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            weather.put(WeatherEntry.COLUMN_MAX_TEMP, 75);
+            weather.put(WeatherEntry.COLUMN_MIN_TEMP, 65);
+            weather.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            weather.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            weather.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+            mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weather);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    /*
+        Stands in for the server: builds the forecast field of a data message.
+     */
+    private static String createMessage(String locationSetting, JSONObject... days)
+            throws JSONException {
+        JSONArray array = new JSONArray();
+        for (JSONObject day : days) {
+            array.put(day);
+        }
+        return new JSONObject()
+                .put("loc", locationSetting)
+                .put("days", array)
+                .toString();
+    }
+
+    private static JSONObject createFullDay(long date) throws JSONException {
+        return new JSONObject()
+                .put("date", date)
+                .put("id", 800)
+                .put("desc", "Clear")
+                .put("max", 30.5)
+                .put("min", 20.5)
+                .put("hum", 40)
+                .put("pres", 1013)
+                .put("wind", 2.5)
+                .put("deg", 90);
+    }
+
+    private Cursor queryDay(long date) {
+        return mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_MIN_TEMP,
+                        WeatherEntry.COLUMN_WEATHER_ID},
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(mLocationId), Long.toString(date)},
+                null);
+    }
+
+    public void testChangedFieldsAreApplied() throws JSONException {
+        String message = createMessage(mLocationSetting,
+                new JSONObject().put("date", mToday).put("max", 80.5).put("id", 500));
+
+        assertEquals(ForecastDelta.RESULT_APPLIED, ForecastDelta.parse(message).apply(mContext));
+
+        Cursor cursor = queryDay(mToday);
+        assertTrue("Error: The day is gone after applying a delta", cursor.moveToFirst());
+        assertEquals(80.5, cursor.getDouble(0), 0.001);
+        assertEquals("Error: A field that didn't change was touched", 65, cursor.getDouble(1), 0.001);
+        assertEquals(500, cursor.getInt(2));
+        cursor.close();
+    }
+
+    public void testNewDayIsInserted() throws JSONException {
+        long date = mToday + 2 * DAY_IN_MILLIS;
+        String message = createMessage(mLocationSetting, createFullDay(date));
+
+        assertEquals(ForecastDelta.RESULT_APPLIED, ForecastDelta.parse(message).apply(mContext));
+
+        Cursor cursor = queryDay(date);
+        assertTrue("Error: The new day wasn't inserted", cursor.moveToFirst());
+        assertEquals(800, cursor.getInt(2));
+        cursor.close();
+    }
+
+    public void testIncompleteDeltaChangesNothing() throws JSONException {
+        // The new day lacks most of its fields, so the change to today can't be applied either
+        String message = createMessage(mLocationSetting,
+                new JSONObject().put("date", mToday).put("max", 80.5),
+                new JSONObject().put("date", mToday + 2 * DAY_IN_MILLIS).put("max", 10));
+
+        assertEquals(ForecastDelta.RESULT_INCOMPLETE,
+                ForecastDelta.parse(message).apply(mContext));
+
+        Cursor cursor = queryDay(mToday);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(75, cursor.getDouble(0), 0.001);
+        cursor.close();
+    }
+
+    public void testUnknownLocationIsIncomplete() throws JSONException {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        String message = createMessage(mLocationSetting, createFullDay(mToday));
+
+        assertEquals(ForecastDelta.RESULT_INCOMPLETE,
+                ForecastDelta.parse(message).apply(mContext));
+    }
+
+    public void testOtherLocationIsIgnored() throws JSONException {
+        String message = createMessage(mLocationSetting + "-elsewhere", createFullDay(mToday));
+
+        assertEquals(ForecastDelta.RESULT_IGNORED, ForecastDelta.parse(message).apply(mContext));
+    }
+
+    public void testMalformedMessageIsRejected() {
+        try {
+            ForecastDelta.parse("{\"loc\": \"94043\", \"days\": [{\"max\": 10}]}");
+            fail("Error: A day without a date was accepted");
+        } catch (JSONException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ForecastBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Vector;
+
+/*
+    Heap and time benchmark for the forecast on its way from the parser to the provider.  Builds
+    the same days as a ForecastBatch and as the Vector of ContentValues (copied into an array for
+    bulkInsert) the sync used to build, and logs the heap each holds and the time each takes to
+    build, per 1,000 days.
+ */
+public class TestForecastBatchFootprint extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastBatchFootprint.class.getSimpleName();
+
+    private static final int DAYS = 1000;
+    private static final int ROUNDS = 20;
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+    private static final String[] DESCRIPTIONS = {"Clear", "Clouds", "Rain", "Snow", "Storm"};
+
+    // Keeps what's being measured reachable while the heap is measured
+    private Object[] mHeld;
+
+    // Every parsed description is a new string, as it is when it comes out of the JSON
+    private static String getDescription(int day) {
+        return new String(DESCRIPTIONS[day % DESCRIPTIONS.length]);
+    }
+
+    private static ForecastBatch buildBatch() {
+        ForecastBatch batch = new ForecastBatch(1, DAYS);
+        for (int i = 0; i < DAYS; i++) {
+            batch.add(i * DAY_IN_MILLIS, 800 + i % 5, getDescription(i), 20 + i % 10,
+                    10 + i % 10, 50 + i % 50, 1000 + i % 30, i % 20 / 2.0, i % 360);
+        }
+        return batch;
+    }
+
+    private static ContentValues[] buildContentValues() {
+        Vector<ContentValues> cVVector = new Vector<ContentValues>(DAYS);
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, 1L);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, i * DAY_IN_MILLIS);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 50 + i % 50);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1000.0 + i % 30);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, i % 20 / 2.0);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, (double) (i % 360));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20.0 + i % 10);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10.0 + i % 10);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, getDescription(i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800 + i % 5);
+            cVVector.add(weatherValues);
+        }
+        ContentValues[] cvArray = new ContentValues[cVVector.size()];
+        cVVector.toArray(cvArray);
+        return cvArray;
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public void testFootprint() {
+        // Warm up both, so that neither pays for loading classes or compiling
+        for (int i = 0; i < 3; i++) {
+            buildBatch();
+            buildContentValues();
+        }
+
+        mHeld = new Object[ROUNDS];
+        long before = getUsedHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            mHeld[i] = buildBatch();
+        }
+        long batchNanos = (System.nanoTime() - start) / ROUNDS;
+        long batchBytes = (getUsedHeap() - before) / ROUNDS;
+        mHeld = new Object[ROUNDS];
+
+        before = getUsedHeap();
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            mHeld[i] = buildContentValues();
+        }
+        long valuesNanos = (System.nanoTime() - start) / ROUNDS;
+        long valuesBytes = (getUsedHeap() - before) / ROUNDS;
+        mHeld = null;
+
+        Log.i(LOG_TAG, "Per " + DAYS + " days: ForecastBatch " + batchBytes / 1024 + "KB in "
+                + batchNanos / 1000 + "us, ContentValues " + valuesBytes / 1024 + "KB in "
+                + valuesNanos / 1000 + "us");
+        assertTrue("Error: The batch took " + batchBytes + " bytes, the ContentValues "
+                + valuesBytes, batchBytes < valuesBytes);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.annotation.TargetApi;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.view.Choreographer;
+
+import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.io.File;
+
+/*
+    Scroll benchmark for the forecast list.  Flings the list up and down with the local and
+    a remote art pack selected and logs the number of frames that missed their vsync deadline.
+    Compare the two results to see the cost of loading remote images while scrolling.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class TestForecastScroll extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    public static final String LOG_TAG = TestForecastScroll.class.getSimpleName();
+
+    private static final int FLING_COUNT = 10;
+    private static final int FLING_VELOCITY = 8000;
+    private static final long FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    private String mOriginalArtPack;
+
+    public TestForecastScroll() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
+                getInstrumentation().getTargetContext());
+        mOriginalArtPack = prefs.getString(
+                getInstrumentation().getTargetContext().getString(R.string.pref_art_pack_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        setArtPack(mOriginalArtPack);
+        super.tearDown();
+    }
+
+    public void testScrollWithLocalArt() {
+        setArtPack(getInstrumentation().getTargetContext().getString(R.string.pref_art_pack_sunshine));
+        int dropped = flingForecastList();
+        Log.i(LOG_TAG, "Local art pack: " + dropped + " dropped frames over " + FLING_COUNT + " flings");
+    }
+
+    public void testScrollWithRemoteArt() {
+        setArtPack(getInstrumentation().getTargetContext().getString(R.string.pref_art_pack_cute_dogs));
+        int dropped = flingForecastList();
+        Log.i(LOG_TAG, "Remote art pack: " + dropped + " dropped frames over " + FLING_COUNT + " flings");
+    }
+
+    private void setArtPack(String artPack) {
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(
+                getInstrumentation().getTargetContext()).edit();
+        String key = getInstrumentation().getTargetContext().getString(R.string.pref_art_pack_key);
+        if (null == artPack) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, artPack);
+        }
+        editor.commit();
+    }
+
+    /*
+        Flings the forecast list back and forth and returns the number of dropped frames.
+     */
+    private int flingForecastList() {
+        final RecyclerView recyclerView =
+                (RecyclerView) getActivity().findViewById(R.id.recyclerview_forecast);
+
+        // We need a populated list to scroll; give the loader (and possibly a sync) time to finish
+        new PollingCheck(30000) {
+            @Override
+            protected boolean check() {
+                return recyclerView.getAdapter().getItemCount() > 0;
+            }
+        }.run();
+
+        final DroppedFrameCounter counter = new DroppedFrameCounter();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                counter.start();
+            }
+        });
+
+        for (int i = 0; i < FLING_COUNT; i++) {
+            final int velocity = (i % 2 == 0) ? FLING_VELOCITY : -FLING_VELOCITY;
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    recyclerView.fling(0, velocity);
+                }
+            });
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE;
+                }
+            }.run();
+        }
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                counter.stop();
+                // Keep the in-app histograms around for comparing against earlier runs
+                if (FrameMetricsCollector.ENABLED) {
+                    File file = FrameMetricsCollector.getInstance().dump(getActivity());
+                    Log.i(LOG_TAG, "Frame stats written to " + file);
+                }
+            }
+        });
+        return counter.getDroppedFrames();
+    }
+
+    /*
+        Counts vsync intervals that were skipped between two consecutive frame callbacks.
+        Must be started and stopped on the main thread.
+     */
+    static class DroppedFrameCounter implements Choreographer.FrameCallback {
+        private long mLastFrameTimeNanos;
+        private int mDroppedFrames;
+        private boolean mRunning;
+
+        void start() {
+            mRunning = true;
+            mLastFrameTimeNanos = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        int getDroppedFrames() {
+            return mDroppedFrames;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) return;
+            if (mLastFrameTimeNanos != 0) {
+                long skipped = (frameTimeNanos - mLastFrameTimeNanos) / FRAME_INTERVAL_NANOS - 1;
+                if (skipped > 0) {
+                    mDroppedFrames += skipped;
+                }
+            }
+            mLastFrameTimeNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+public class TestApiRateLimiter extends AndroidTestCase {
+
+    private static final String TEST_PREFS = "test_api_rate_limiter";
+    private static final String TEST_KEY = "test_api_key";
+    private static final int CAPACITY = 6;
+    private static final long REFILL_MILLIS = 1000L * 60 * 10;
+    // December 20th, 2014
+    private static final long NOW = 1419033600000L;
+
+    private SharedPreferences mPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences(TEST_PREFS, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    private ApiRateLimiter createLimiter(String apiKey) {
+        return new ApiRateLimiter(mPrefs, apiKey, CAPACITY, REFILL_MILLIS);
+    }
+
+    public void testBurstThenRefill() {
+        ApiRateLimiter limiter = createLimiter(TEST_KEY);
+        assertEquals(CAPACITY, limiter.getRemaining(NOW));
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue("Error: Request " + i + " of a burst was refused",
+                    limiter.tryAcquire(true, NOW));
+        }
+        assertFalse("Error: A request over the capacity was allowed",
+                limiter.tryAcquire(true, NOW));
+        assertEquals(NOW + REFILL_MILLIS, limiter.getNextAllowedAt(NOW));
+
+        assertFalse(limiter.tryAcquire(true, NOW + REFILL_MILLIS - 1));
+        assertTrue(limiter.tryAcquire(true, NOW + REFILL_MILLIS));
+        assertFalse(limiter.tryAcquire(true, NOW + REFILL_MILLIS));
+
+        // A long wait only fills the bucket up to its capacity
+        assertEquals(CAPACITY, limiter.getRemaining(NOW + REFILL_MILLIS * 100));
+    }
+
+    public void testReservedForPreferred() {
+        ApiRateLimiter limiter = createLimiter(TEST_KEY);
+        int others = 0;
+        while (limiter.tryAcquire(false, NOW)) {
+            others++;
+        }
+        assertEquals(CAPACITY - ApiRateLimiter.RESERVED_FOR_PREFERRED, others);
+        for (int i = 0; i < ApiRateLimiter.RESERVED_FOR_PREFERRED; i++) {
+            assertTrue("Error: The preferred location couldn't take a reserved request",
+                    limiter.tryAcquire(true, NOW));
+        }
+        assertEquals(0, limiter.getRemaining(NOW));
+    }
+
+    public void testTooManyRequests() {
+        ApiRateLimiter limiter = createLimiter(TEST_KEY);
+        limiter.onTooManyRequests("120", NOW);
+        assertEquals(0, limiter.getRemaining(NOW));
+        assertFalse(limiter.tryAcquire(true, NOW + REFILL_MILLIS - 1));
+        assertEquals(NOW + REFILL_MILLIS, limiter.getNextAllowedAt(NOW));
+
+        // Retry-After waits longer than the bucket takes to refill hold everything back
+        limiter.onTooManyRequests("3600", NOW + REFILL_MILLIS);
+        assertFalse(limiter.tryAcquire(true, NOW + REFILL_MILLIS * 5));
+        assertEquals(NOW + REFILL_MILLIS + 3600 * 1000,
+                limiter.getNextAllowedAt(NOW + REFILL_MILLIS));
+        assertTrue(limiter.tryAcquire(true, NOW + REFILL_MILLIS + 3600 * 1000));
+    }
+
+    public void testParseRetryAfter() {
+        assertEquals(120 * 1000, ApiRateLimiter.parseRetryAfter("120", NOW));
+        assertEquals(120 * 1000, ApiRateLimiter.parseRetryAfter(" 120 ", NOW));
+        assertEquals(90 * 1000,
+                ApiRateLimiter.parseRetryAfter("Sat, 20 Dec 2014 00:01:30 GMT", NOW));
+        assertEquals(0, ApiRateLimiter.parseRetryAfter("Fri, 19 Dec 2014 00:00:00 GMT", NOW));
+        assertTrue(ApiRateLimiter.parseRetryAfter(null, NOW) > 0);
+        assertTrue(ApiRateLimiter.parseRetryAfter("soon", NOW) > 0);
+        assertTrue("Error: A huge Retry-After overflowed into no wait",
+                ApiRateLimiter.parseRetryAfter("9223372036854775807", NOW) >= 3600 * 1000);
+    }
+
+    public void testStateIsPersisted() {
+        ApiRateLimiter limiter = createLimiter(TEST_KEY);
+        limiter.tryAcquire(true, NOW);
+        limiter.tryAcquire(true, NOW);
+        limiter.onTooManyRequests("60", NOW);
+        // Saved with apply, which the next instance still sees
+        ApiRateLimiter restored = createLimiter(TEST_KEY);
+        assertFalse(restored.tryAcquire(true, NOW + 30 * 1000));
+        assertEquals(limiter.getNextAllowedAt(NOW), restored.getNextAllowedAt(NOW));
+
+        // Another key has its own bucket
+        assertEquals(CAPACITY, createLimiter("another_api_key").getRemaining(NOW));
+    }
+}
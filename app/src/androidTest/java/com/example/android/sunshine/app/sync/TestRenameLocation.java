@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.ForecastRepository;
+import com.example.android.sunshine.app.data.LocationIndex;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherSnapshotFile;
+
+public class TestRenameLocation extends AndroidTestCase {
+
+    // Settings of our own, so the app's files for the preferred location are left alone
+    private static final String OLD_LOCATION = "test_rename_mountain_view";
+    private static final String NEW_LOCATION = "test_rename_37.39,-122.08";
+    private static final double LATITUDE = 37.39;
+    private static final double LONGITUDE = -122.08;
+    private static final int DAYS = 3;
+
+    private SunshineSyncAdapter mAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mAdapter = new SunshineSyncAdapter(mContext, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        WeatherSnapshotFile.delete(mContext, OLD_LOCATION);
+        WeatherSnapshotFile.delete(mContext, NEW_LOCATION);
+        ResponseJournal journal = new ResponseJournal(mContext);
+        journal.delete(OLD_LOCATION);
+        journal.delete(NEW_LOCATION);
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        values.put(LocationEntry.COLUMN_COORD_LAT, LATITUDE);
+        values.put(LocationEntry.COLUMN_COORD_LONG, LONGITUDE);
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        return ContentUris.parseId(uri);
+    }
+
+    private void insertWeather(long locationId, double maxTemp) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            values.put(WeatherEntry.COLUMN_DATE, today + i * DateUtils.DAY_IN_MILLIS);
+            values.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            values.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            values.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, 10);
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+            mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values);
+        }
+    }
+
+    private int countLocations(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting}, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    /*
+        Both settings already have a row, as when the coordinates were fetched once before: the
+        rename would break the unique setting, so the fresher forecast is moved over instead.
+     */
+    public void testRenameOntoExistingSettingMerges() {
+        long oldId = insertLocation(OLD_LOCATION);
+        long newId = insertLocation(NEW_LOCATION);
+        insertWeather(oldId, 25);
+        insertWeather(newId, 15);
+        WeatherSnapshotFile.write(mContext,
+                ForecastRepository.getInstance(mContext).refreshForecast(OLD_LOCATION));
+        new ResponseJournal(mContext).append(OLD_LOCATION, System.currentTimeMillis(), "{}");
+
+        long locationId = mAdapter.renameLocation(
+                new LocationIndex.Location(oldId, OLD_LOCATION, LATITUDE, LONGITUDE),
+                NEW_LOCATION);
+
+        assertEquals("Error: The location wasn't kept in the row with the new setting",
+                newId, locationId);
+        assertEquals(0, countLocations(OLD_LOCATION));
+        assertEquals(1, countLocations(NEW_LOCATION));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(NEW_LOCATION),
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        assertNotNull(cursor);
+        assertEquals("Error: The moved weather should replace the stale weather for the same days",
+                DAYS, cursor.getCount());
+        while (cursor.moveToNext()) {
+            assertEquals(25, cursor.getDouble(0), 0.001);
+        }
+        cursor.close();
+
+        assertNull("Error: The old setting's snapshot was left behind",
+                WeatherSnapshotFile.open(mContext, OLD_LOCATION));
+        assertNull("Error: The old setting's journal was left behind",
+                new ResponseJournal(mContext).readLatest(OLD_LOCATION));
+    }
+
+    public void testRenameToUnusedSetting() {
+        long oldId = insertLocation(OLD_LOCATION);
+        insertWeather(oldId, 25);
+
+        long locationId = mAdapter.renameLocation(
+                new LocationIndex.Location(oldId, OLD_LOCATION, LATITUDE, LONGITUDE),
+                NEW_LOCATION);
+
+        assertEquals(oldId, locationId);
+        assertEquals(0, countLocations(OLD_LOCATION));
+        assertEquals(1, countLocations(NEW_LOCATION));
+    }
+
+    /*
+        The index is kept between calls, so a location inserted after it was built has to show up
+        all the same.
+     */
+    public void testIndexSeesNewLocations() {
+        long firstId = mAdapter.addLocation(OLD_LOCATION, "Mountain View", LATITUDE, LONGITUDE);
+        long secondId = mAdapter.addLocation(NEW_LOCATION, "Mountain View", LATITUDE, LONGITUDE);
+        assertEquals("Error: The location added first wasn't found nearby", firstId, secondId);
+        assertEquals(0, countLocations(OLD_LOCATION));
+        assertEquals(1, countLocations(NEW_LOCATION));
+    }
+
+    public void testSnappedLocationTakesTheNewPlace() {
+        mAdapter.addLocation(OLD_LOCATION, "Mountain View", LATITUDE, LONGITUDE);
+        long locationId = mAdapter.addLocation(NEW_LOCATION, "Castro City", LATITUDE + 0.001,
+                LONGITUDE);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_CITY_NAME, LocationEntry.COLUMN_COORD_LAT},
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationId)}, null);
+        assertNotNull(cursor);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The snapped row kept the old city name",
+                "Castro City", cursor.getString(0));
+        assertEquals(LATITUDE + 0.001, cursor.getDouble(1), 0.00001);
+        cursor.close();
+    }
+}
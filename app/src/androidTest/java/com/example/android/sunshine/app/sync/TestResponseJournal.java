@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.Random;
+
+public class TestResponseJournal extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestResponseJournal.class.getSimpleName();
+
+    private static final String TEST_LOCATION = "99705";
+    private static final int MAX_BYTES = 16 * 1024;
+    // Three-hourly syncs over a week, starting December 20th, 2014
+    private static final int REPLAY_COUNT = 56;
+    private static final long START_MILLIS = 1419033600000L;
+    private static final long INTERVAL_MILLIS = 1000L * 60 * 60 * 3;
+
+    private File mDirectory;
+    private ResponseJournal mJournal;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(mContext.getCacheDir(), "test_response_journal");
+        deleteDirectory();
+        mJournal = new ResponseJournal(mDirectory, MAX_BYTES);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    /*
+        Stands in for the server: a 14 day forecast in the format OWM returns, the same for the
+        same seed.
+     */
+    static String createResponse(long seed) throws JSONException {
+        Random random = new Random(seed);
+        JSONArray list = new JSONArray();
+        for (int i = 0; i < 14; i++) {
+            double low = -30 + random.nextInt(300) / 10.0;
+            list.put(new JSONObject()
+                    .put("pressure", 990 + random.nextInt(400) / 10.0)
+                    .put("humidity", random.nextInt(100))
+                    .put("speed", random.nextInt(200) / 10.0)
+                    .put("deg", random.nextInt(360))
+                    .put("temp", new JSONObject()
+                            .put("min", low)
+                            .put("max", low + random.nextInt(150) / 10.0))
+                    .put("weather", new JSONArray().put(new JSONObject()
+                            .put("id", 800 + random.nextInt(5))
+                            .put("main", "Clouds"))));
+        }
+        return new JSONObject()
+                .put("cod", "200")
+                .put("city", new JSONObject()
+                        .put("name", "North Pole")
+                        .put("coord", new JSONObject().put("lat", 64.7488).put("lon", -147.353)))
+                .put("cnt", list.length())
+                .put("list", list)
+                .toString();
+    }
+
+    public void testAppendAndRead() throws Exception {
+        assertNull(mJournal.readLatest(TEST_LOCATION));
+        for (int i = 0; i < 3; i++) {
+            mJournal.append(TEST_LOCATION, START_MILLIS + i * INTERVAL_MILLIS, createResponse(i));
+        }
+
+        List<ResponseJournal.Entry> entries = mJournal.read(TEST_LOCATION);
+        assertEquals(3, entries.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(START_MILLIS + i * INTERVAL_MILLIS, entries.get(i).receivedAt);
+            assertEquals(createResponse(i), entries.get(i).getJson());
+        }
+        assertEquals(createResponse(2), mJournal.readLatest(TEST_LOCATION).getJson());
+        assertTrue("Error: Other locations share the journal",
+                mJournal.read("London, GB").isEmpty());
+    }
+
+    public void testSizeIsBounded() throws Exception {
+        for (int i = 0; i < REPLAY_COUNT * 4; i++) {
+            mJournal.append(TEST_LOCATION, START_MILLIS + i * INTERVAL_MILLIS, createResponse(i));
+            assertTrue("Error: The journal grew to "
+                    + mJournal.getFile(TEST_LOCATION).length() + " bytes",
+                    mJournal.getFile(TEST_LOCATION).length() <= MAX_BYTES);
+        }
+
+        // Only the oldest responses were dropped
+        List<ResponseJournal.Entry> entries = mJournal.read(TEST_LOCATION);
+        assertTrue(entries.size() > 1);
+        int last = REPLAY_COUNT * 4 - 1;
+        int first = last - entries.size() + 1;
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(START_MILLIS + (first + i) * INTERVAL_MILLIS, entries.get(i).receivedAt);
+        }
+        assertEquals(createResponse(last), entries.get(entries.size() - 1).getJson());
+    }
+
+    public void testCutShortAppendIsOverwritten() throws Exception {
+        mJournal.append(TEST_LOCATION, START_MILLIS, createResponse(0));
+
+        // What the process dying in the middle of an append leaves behind
+        FileOutputStream out = new FileOutputStream(mJournal.getFile(TEST_LOCATION), true);
+        out.write(new byte[]{0x53, 0x55, 0x4E, 0x4A, 0, 0, 1});
+        out.close();
+        assertEquals(1, mJournal.read(TEST_LOCATION).size());
+
+        mJournal.append(TEST_LOCATION, START_MILLIS + INTERVAL_MILLIS, createResponse(1));
+        List<ResponseJournal.Entry> entries = mJournal.read(TEST_LOCATION);
+        assertEquals(2, entries.size());
+        assertEquals(createResponse(1), entries.get(1).getJson());
+    }
+
+    /*
+        Replay benchmark: ingests the same week of responses every run, so that changes to the
+        parsing or to the database writes can be compared without the network in the way.
+     */
+    public void testReplay() throws Exception {
+        ResponseJournal journal = new ResponseJournal(mDirectory, REPLAY_COUNT * 4096);
+        for (int i = 0; i < REPLAY_COUNT; i++) {
+            journal.append(TEST_LOCATION, START_MILLIS + i * INTERVAL_MILLIS, createResponse(i));
+        }
+        List<ResponseJournal.Entry> entries = journal.read(TEST_LOCATION);
+        assertEquals(REPLAY_COUNT, entries.size());
+
+        SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false);
+        long decompressNanos = 0;
+        long ingestNanos = 0;
+        for (ResponseJournal.Entry entry : entries) {
+            long start = System.nanoTime();
+            String json = entry.getJson();
+            long decompressed = System.nanoTime();
+            assertTrue(adapter.getWeatherDataFromJson(json, TEST_LOCATION, entry.receivedAt));
+            long ingested = System.nanoTime();
+            decompressNanos += decompressed - start;
+            ingestNanos += ingested - decompressed;
+        }
+        Log.i(LOG_TAG, "Replayed " + REPLAY_COUNT + " responses: "
+                + decompressNanos / REPLAY_COUNT / 1000 + "us to decompress and "
+                + ingestNanos / REPLAY_COUNT / 1000 + "us to parse and ingest each");
+
+        // The last response received is what's stored, from its day on
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TEST_LOCATION),
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null,
+                WeatherEntry.COLUMN_DATE + " DESC");
+        assertNotNull(cursor);
+        assertTrue("Error: Nothing was stored by the replay", cursor.moveToFirst());
+        JSONArray list = new JSONObject(createResponse(REPLAY_COUNT - 1)).getJSONArray("list");
+        assertEquals(list.getJSONObject(list.length() - 1).getJSONObject("temp").getDouble("max"),
+                cursor.getDouble(0), 0.001);
+        cursor.close();
+    }
+}
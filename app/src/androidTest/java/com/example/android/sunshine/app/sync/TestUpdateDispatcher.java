@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestUpdateDispatcher extends AndroidTestCase {
+
+    // Long enough that nothing is delivered unless the test asks for it
+    private static final long WINDOW_MILLIS = 60 * 1000;
+
+    public void testRequestsWithinWindowAreCoalesced() {
+        UpdateDispatcher dispatcher = new UpdateDispatcher(mContext, WINDOW_MILLIS);
+
+        dispatcher.requestUpdate(UpdateDispatcher.CONSUMER_ALL);
+        dispatcher.requestUpdate(UpdateDispatcher.CONSUMER_WIDGETS);
+        dispatcher.requestUpdate(UpdateDispatcher.CONSUMER_WIDGETS | UpdateDispatcher.CONSUMER_WEARABLE);
+
+        assertEquals(3, dispatcher.getRequestCount());
+        assertEquals("Error: Every consumer already waiting should count as a dropped duplicate",
+                3, dispatcher.getDroppedDuplicateCount());
+        assertEquals("Error: Nothing should be delivered before the window has passed",
+                0, dispatcher.getDeliveryCount() + dispatcher.getSkippedUnusedCount());
+    }
+
+    public void testEachConsumerIsDeliveredOrSkippedOnce() {
+        UpdateDispatcher dispatcher = new UpdateDispatcher(mContext, WINDOW_MILLIS);
+        dispatcher.requestUpdate(UpdateDispatcher.CONSUMER_MUZEI);
+        dispatcher.requestUpdate(UpdateDispatcher.CONSUMER_MUZEI);
+
+        dispatcher.deliver();
+        assertEquals(1, dispatcher.getDeliveryCount() + dispatcher.getSkippedUnusedCount());
+
+        // Nothing is left pending afterwards
+        dispatcher.deliver();
+        assertEquals(1, dispatcher.getDeliveryCount() + dispatcher.getSkippedUnusedCount());
+    }
+
+    /*
+        A sync flushes before it returns, since the window may outlast its process.
+     */
+    public void testFlushDeliversPendingRightAway() {
+        UpdateDispatcher dispatcher = new UpdateDispatcher(mContext, WINDOW_MILLIS);
+        dispatcher.flush();
+        assertEquals("Error: Nothing should be delivered when nothing was requested",
+                0, dispatcher.getDeliveryCount() + dispatcher.getSkippedUnusedCount());
+
+        dispatcher.requestUpdate(UpdateDispatcher.CONSUMER_MUZEI);
+        dispatcher.requestUpdate(UpdateDispatcher.CONSUMER_MUZEI);
+        dispatcher.flush();
+        assertEquals(1, dispatcher.getDeliveryCount() + dispatcher.getSkippedUnusedCount());
+
+        // The window that was scheduled is cancelled along with it
+        dispatcher.flush();
+        assertEquals(1, dispatcher.getDeliveryCount() + dispatcher.getSkippedUnusedCount());
+    }
+}
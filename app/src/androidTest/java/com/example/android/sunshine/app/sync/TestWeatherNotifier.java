@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.app.NotificationManager;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.ForecastListSnapshot;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherSnapshotFile;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestWeatherNotifier extends AndroidTestCase {
+
+    // A location of our own, so the app's files for the preferred location are left alone
+    private static final String TEST_LOCATION = "test_weather_notifier";
+    private static final long FETCH_TIMEOUT_MILLIS = 250;
+    // The target is 100ms; the rest is slack for slow emulators, well short of any fetch
+    private static final long BUDGET_MILLIS = 300;
+    private static final long WAIT_MILLIS = 5000;
+
+    /**
+     * An art server that never answers until the test lets it fail.
+     */
+    private static class StalledArtSource implements WeatherNotifier.ArtSource {
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mReleased = new CountDownLatch(1);
+
+        @Override
+        public Bitmap load(String artUrl, int width, int height, long timeoutMillis)
+                throws IOException {
+            mStarted.countDown();
+            try {
+                mReleased.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Art server stalled");
+        }
+    }
+
+    private SharedPreferences mPrefs;
+    private String mLastNotificationKey;
+    private long mLastNotification;
+    private String mLocationKey;
+    private String mLocation;
+    private String mNotificationsKey;
+    private boolean mNotificationsSet;
+    private boolean mNotifications;
+    private final ArrayList<WeatherNotifier> mNotifiers = new ArrayList<WeatherNotifier>();
+    private WeatherNotifier mReplacedNotifier;
+    private boolean mReplaced;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mLastNotificationKey = mContext.getString(R.string.pref_last_notification);
+        mLastNotification = mPrefs.getLong(mLastNotificationKey, 0);
+        mLocationKey = mContext.getString(R.string.pref_location_key);
+        mLocation = mPrefs.getString(mLocationKey, null);
+        mNotificationsKey = mContext.getString(R.string.pref_enable_notifications_key);
+        mNotificationsSet = mPrefs.contains(mNotificationsKey);
+        mNotifications = mPrefs.getBoolean(mNotificationsKey, false);
+        deleteCachedIcons();
+        deleteTestLocation();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mReplaced) {
+            WeatherNotifier.setInstance(mReplacedNotifier);
+        }
+        for (WeatherNotifier notifier : mNotifiers) {
+            notifier.quit();
+        }
+        ((NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE))
+                .cancel(WeatherNotifier.WEATHER_NOTIFICATION_ID);
+
+        SharedPreferences.Editor editor = mPrefs.edit()
+                .putLong(mLastNotificationKey, mLastNotification);
+        if (null == mLocation) {
+            editor.remove(mLocationKey);
+        } else {
+            editor.putString(mLocationKey, mLocation);
+        }
+        if (mNotificationsSet) {
+            editor.putBoolean(mNotificationsKey, mNotifications);
+        } else {
+            editor.remove(mNotificationsKey);
+        }
+        editor.commit();
+
+        deleteTestLocation();
+        WeatherSnapshotFile.delete(mContext, TEST_LOCATION);
+        ForecastListSnapshot.delete(mContext, TEST_LOCATION);
+        super.tearDown();
+    }
+
+    private WeatherNotifier createNotifier(WeatherNotifier.ArtSource artSource,
+            long fetchTimeoutMillis) {
+        WeatherNotifier notifier = new WeatherNotifier(mContext, artSource, fetchTimeoutMillis);
+        mNotifiers.add(notifier);
+        return notifier;
+    }
+
+    private void deleteCachedIcons() {
+        File[] files = new File(mContext.getCacheDir(), WeatherNotifier.CACHE_DIRECTORY).listFiles();
+        if (null != files) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private void deleteTestLocation() {
+        ContentResolver resolver = mContext.getContentResolver();
+        Cursor cursor = resolver.query(LocationEntry.CONTENT_URI, new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{TEST_LOCATION}, null);
+        if (null == cursor) {
+            return;
+        }
+        while (cursor.moveToNext()) {
+            resolver.delete(WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                    new String[]{Long.toString(cursor.getLong(0))});
+        }
+        cursor.close();
+        resolver.delete(LocationEntry.CONTENT_URI, LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TEST_LOCATION});
+    }
+
+    public void testStalledArtServerFallsBackToResource() {
+        WeatherNotifier notifier = createNotifier(new StalledArtSource(), FETCH_TIMEOUT_MILLIS);
+
+        long start = SystemClock.elapsedRealtime();
+        Bitmap icon = notifier.getLargeIcon(800);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        assertNotNull("Error: No large icon while the art server is stalled", icon);
+        assertEquals(notifier.getLargeIconWidth(), icon.getWidth());
+        assertEquals(notifier.getLargeIconHeight(), icon.getHeight());
+        assertTrue("Error: Waited " + elapsed + "ms for a " + FETCH_TIMEOUT_MILLIS
+                + "ms fetch timeout", elapsed < FETCH_TIMEOUT_MILLIS + BUDGET_MILLIS);
+    }
+
+    public void testSyncDoesNotWaitForStalledArtServer() throws Exception {
+        // A forecast for today, and a notification that is due
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        locationValues.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        locationValues.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues));
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+        weatherValues.put(WeatherEntry.COLUMN_DEGREES, 270);
+        weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 80);
+        weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1013.5);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 20);
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 10);
+        weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 4.5);
+        weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+        mPrefs.edit()
+                .putString(mLocationKey, TEST_LOCATION)
+                .putBoolean(mNotificationsKey, true)
+                .putLong(mLastNotificationKey, 0)
+                .commit();
+
+        // A fetch that would hold the sync up for far longer than the test waits
+        final StalledArtSource artSource = new StalledArtSource();
+        mReplacedNotifier = WeatherNotifier.setInstance(createNotifier(artSource, WAIT_MILLIS * 10));
+        mReplaced = true;
+
+        long start = SystemClock.elapsedRealtime();
+        SunshineSyncAdapter.onForecastChanged(mContext, TEST_LOCATION);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        assertTrue("Error: The sync spent " + elapsed + "ms after writing the forecast",
+                elapsed < BUDGET_MILLIS);
+
+        assertTrue("Error: The notification never asked for its large icon",
+                artSource.mStarted.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        // Still stalled, and another sync is just as quick
+        start = SystemClock.elapsedRealtime();
+        SunshineSyncAdapter.onForecastChanged(mContext, TEST_LOCATION);
+        elapsed = SystemClock.elapsedRealtime() - start;
+        assertTrue("Error: The sync spent " + elapsed + "ms after writing the forecast",
+                elapsed < BUDGET_MILLIS);
+        assertEquals("Error: The notification went out while the art server was stalled",
+                0, mPrefs.getLong(mLastNotificationKey, 0));
+
+        // Once the fetch fails the notification goes out with the fallback icon
+        artSource.mReleased.countDown();
+        PollingCheck.check("Error: The notification wasn't posted after the fetch failed",
+                WAIT_MILLIS, new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return mPrefs.getLong(mLastNotificationKey, 0) != 0;
+                    }
+                });
+    }
+}
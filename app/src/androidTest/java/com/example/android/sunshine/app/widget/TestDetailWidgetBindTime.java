@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.ServiceTestCase;
+import android.util.Log;
+import android.widget.RemoteViews;
+import android.widget.RemoteViewsService;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.ForecastRepository;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherSnapshotFile;
+
+/*
+    Checks that binding a row of the detail widget is only a lookup, even with a remote art pack:
+    the art has to be fetched in onDataSetChanged, never in getViewAt.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class TestDetailWidgetBindTime extends ServiceTestCase<DetailWidgetRemoteViewsService> {
+    public static final String LOG_TAG = TestDetailWidgetBindTime.class.getSimpleName();
+
+    private static final String TEST_LOCATION = "99705";
+    private static final int DAYS = 14;
+    // Far below what fetching or decoding a single image takes
+    private static final long BIND_BUDGET_MILLIS = 20;
+
+    private String mOriginalLocation;
+    private String mOriginalArtPack;
+
+    public TestDetailWidgetBindTime() {
+        super(DetailWidgetRemoteViewsService.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Context context = getContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mOriginalLocation = prefs.getString(context.getString(R.string.pref_location_key), null);
+        mOriginalArtPack = prefs.getString(context.getString(R.string.pref_art_pack_key), null);
+        setPreference(R.string.pref_location_key, TEST_LOCATION);
+        setPreference(R.string.pref_art_pack_key, context.getString(R.string.pref_art_pack_cute_dogs));
+
+        context.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        locationValues.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        locationValues.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        Uri locationUri = context.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues);
+        long locationRowId = Long.parseLong(locationUri.getLastPathSegment());
+
+        // Cycle through a few conditions, so several distinct images are needed
+        int[] weatherIds = {200, 500, 600, 800, 801, 803};
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = new ContentValues();
+            values[i].put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+            values[i].put(WeatherEntry.COLUMN_DATE, today + i * 1000L * 60 * 60 * 24);
+            values[i].put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            values[i].put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            values[i].put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75);
+            values[i].put(WeatherEntry.COLUMN_MIN_TEMP, 65);
+            values[i].put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            values[i].put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            values[i].put(WeatherEntry.COLUMN_WEATHER_ID, weatherIds[i % weatherIds.length]);
+        }
+        context.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        // The widget reads the snapshot the sync adapter writes after inserting the forecast
+        WeatherSnapshotFile.write(context,
+                ForecastRepository.getInstance(context).refreshForecast(TEST_LOCATION));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        setPreference(R.string.pref_location_key, mOriginalLocation);
+        setPreference(R.string.pref_art_pack_key, mOriginalArtPack);
+        super.tearDown();
+    }
+
+    private void setPreference(int keyId, String value) {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(getContext()).edit();
+        String key = getContext().getString(keyId);
+        if (null == value) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, value);
+        }
+        editor.commit();
+    }
+
+    public void testRowBindTimeWithinBudget() {
+        setupService();
+        RemoteViewsService.RemoteViewsFactory factory =
+                getService().onGetViewFactory(new Intent(getContext(), DetailWidgetRemoteViewsService.class));
+        factory.onCreate();
+        // This is where the network and the decoder may be used
+        factory.onDataSetChanged();
+        assertEquals(DAYS, factory.getCount());
+
+        long slowest = 0;
+        for (int position = 0; position < factory.getCount(); position++) {
+            long start = SystemClock.elapsedRealtime();
+            RemoteViews views = factory.getViewAt(position);
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            assertNotNull("Error: No view for row " + position, views);
+            slowest = Math.max(slowest, elapsed);
+        }
+        factory.onDestroy();
+
+        Log.i(LOG_TAG, "Slowest row bind: " + slowest + "ms");
+        assertTrue("Error: Binding a row took " + slowest + "ms, over the budget of "
+                + BIND_BUDGET_MILLIS + "ms", slowest <= BIND_BUDGET_MILLIS);
+    }
+}
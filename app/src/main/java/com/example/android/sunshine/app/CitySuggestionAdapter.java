@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.TextView;
+
+import com.example.android.sunshine.app.data.CityIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Suggests cities from the bundled {@link CityIndex} as the user types a location.  Lookups run
+ * on the filter's background thread, which also builds the index the first time.
+ */
+class CitySuggestionAdapter extends BaseAdapter implements Filterable {
+    private static final int MAX_SUGGESTIONS = 8;
+
+    private final Context mContext;
+    private final LayoutInflater mInflater;
+    // Only touched on the main thread
+    private List<CityIndex.City> mCities = new ArrayList<CityIndex.City>();
+
+    private final Filter mFilter = new Filter() {
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+            FilterResults results = new FilterResults();
+            CityIndex index = CityIndex.getInstance(mContext);
+            if (null != constraint && null != index) {
+                List<CityIndex.City> cities = index.suggest(constraint, MAX_SUGGESTIONS);
+                results.values = cities;
+                results.count = cities.size();
+            }
+            return results;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            if (results.count > 0) {
+                mCities = (List<CityIndex.City>) results.values;
+                notifyDataSetChanged();
+            } else {
+                mCities = new ArrayList<CityIndex.City>();
+                notifyDataSetInvalidated();
+            }
+        }
+
+        @Override
+        public CharSequence convertResultToString(Object resultValue) {
+            return ((CityIndex.City) resultValue).getDisplayName();
+        }
+    };
+
+    CitySuggestionAdapter(Context context) {
+        mContext = context.getApplicationContext();
+        mInflater = LayoutInflater.from(context);
+    }
+
+    @Override
+    public int getCount() {
+        return mCities.size();
+    }
+
+    @Override
+    public CityIndex.City getItem(int position) {
+        return mCities.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).owmId;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view = (TextView) (null != convertView ? convertView
+                : mInflater.inflate(android.R.layout.simple_dropdown_item_1line, parent, false));
+        view.setText(getItem(position).getDisplayName());
+        return view;
+    }
+
+    @Override
+    public Filter getFilter() {
+        return mFilter;
+    }
+}
@@ -16,7 +16,6 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
@@ -29,12 +28,11 @@ import android.widget.Checkable;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * from a {@link ForecastSnapshot} to a {@link android.support.v7.widget.RecyclerView}.
  */
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
@@ -44,11 +42,14 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
-    private Cursor mCursor;
+    private ForecastSnapshot mForecast;
+    // The last rendered forecast, shown until mForecast is first loaded
+    private ForecastListSnapshot mPreview;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
+    final private ForecastArtPreloader mArtPreloader;
 
     /**
      * Cache of the children views for a forecast list item.
@@ -73,9 +74,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            mClickHandler.onClick(getDate(adapterPosition), this);
             mICM.onClick(this);
         }
     }
@@ -90,6 +89,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mEmptyView = emptyView;
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
+        mArtPreloader = new ForecastArtPreloader(context);
     }
 
     /*
@@ -124,43 +124,55 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
-        int defaultImage;
-        boolean useLongToday;
+        int viewType = getItemViewType(position);
+        int weatherId;
+        String dateText;
+        String description;
+        String highString;
+        String lowString;
+
+        if ( null != mForecast ) {
+            ForecastSnapshot.Day day = mForecast.get(position);
+            weatherId = day.weatherId;
+            // Read date from the forecast
+            dateText = Utility.getFriendlyDayString(mContext, day.date, viewType == VIEW_TYPE_TODAY);
+            // Read weather forecast from the forecast
+            description = Utility.getStringForWeatherCondition(mContext, weatherId);
+            // Read high and low temperatures from the forecast
+            highString = Utility.formatTemperature(mContext, day.maxTemp);
+            lowString = Utility.formatTemperature(mContext, day.minTemp);
+        } else {
+            // Still loading; show the rows as they were last formatted
+            ForecastListSnapshot.Row row = mPreview.get(position);
+            weatherId = row.weatherId;
+            dateText = viewType == VIEW_TYPE_TODAY ? mPreview.getTodayText() : row.dateText;
+            description = row.description;
+            highString = row.high;
+            lowString = row.low;
+        }
 
-        switch (getItemViewType(position)) {
+        int defaultImage;
+        switch (viewType) {
             case VIEW_TYPE_TODAY:
                 defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
                 break;
             default:
                 defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
         }
 
         if ( Utility.usingLocalGraphics(mContext) ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
-            Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
-                    .error(defaultImage)
-                    .crossFade()
-                    .into(forecastAdapterViewHolder.mIconView);
+            // Sized to match the request issued by the preloader in swapForecast
+            mArtPreloader.into(forecastAdapterViewHolder.mIconView, weatherId, viewType == VIEW_TYPE_TODAY);
         }
 
         // this enables better animations. even if we lose state due to a device rotation,
         // the animator can use this to re-find the original view
         ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
         // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
-
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        forecastAdapterViewHolder.mDateView.setText(dateText);
 
         // Find TextView and set weather forecast on it
         forecastAdapterViewHolder.mDescriptionView.setText(description);
@@ -170,15 +182,9 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
         forecastAdapterViewHolder.mHighTempView.setText(highString);
         forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
         forecastAdapterViewHolder.mLowTempView.setText(lowString);
         forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
 
@@ -208,18 +214,44 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        if ( null != mForecast ) return mForecast.size();
+        if ( null != mPreview ) return mPreview.size();
+        return 0;
+    }
+
+    private long getDate(int position) {
+        return null != mForecast ? mForecast.get(position).date : mPreview.get(position).date;
     }
 
-    public void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
+    /**
+     * Shows the last rendered forecast until the real one is swapped in.
+     */
+    public void swapPreview(ForecastListSnapshot preview) {
+        mPreview = preview;
+        if ( null == mForecast ) {
+            notifyDataSetChanged();
+            mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
+        }
+    }
+
+    public boolean isShowingPreview() {
+        return null == mForecast && null != mPreview;
+    }
+
+    public void swapForecast(ForecastSnapshot newForecast) {
+        mForecast = newForecast;
+        if ( null != newForecast ) {
+            // The real forecast replaces the preview for good
+            mPreview = null;
+        }
+        // Warm the image caches for every condition in the forecast before rows get bound
+        mArtPreloader.preload(newForecast, mUseTodayLayout);
         notifyDataSetChanged();
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
-    public Cursor getCursor() {
-        return mCursor;
+    public ForecastSnapshot getForecast() {
+        return mForecast;
     }
 
     public void selectView(RecyclerView.ViewHolder viewHolder) {
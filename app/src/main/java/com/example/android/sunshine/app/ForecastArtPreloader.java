@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.widget.ImageView;
+
+import com.bumptech.glide.DrawableRequestBuilder;
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+
+import java.util.HashSet;
+
+/**
+ * Loads remote art pack images for the forecast list at the exact pixel size of the
+ * "today" and "future day" icon views, and warms Glide's caches for every distinct
+ * condition in a forecast before the rows are bound.
+ *
+ * Binding and preloading go through the same request so that they share a cache key;
+ * a preloaded image is then served straight from memory when its row scrolls into view.
+ */
+class ForecastArtPreloader {
+
+    private final Context mContext;
+    private final int mTodayIconSize;
+    private final int mListIconSize;
+
+    ForecastArtPreloader(Context context) {
+        mContext = context;
+        mTodayIconSize = context.getResources().getDimensionPixelSize(R.dimen.today_icon);
+        mListIconSize = context.getResources().getDimensionPixelSize(R.dimen.list_icon);
+    }
+
+    /**
+     * Starts a background load of every distinct art image referenced by the forecast.  There are
+     * at most a dozen distinct conditions, and images already in the memory cache complete
+     * immediately, so this is cheap to repeat for every new forecast.
+     *
+     * @param forecast the forecast about to be displayed
+     * @param useTodayLayout whether the first row is shown using the large "today" layout
+     */
+    void preload(ForecastSnapshot forecast, boolean useTodayLayout) {
+        if (null == forecast || Utility.usingLocalGraphics(mContext)) {
+            return;
+        }
+        // Keys ("url@size") of the images already requested for this forecast
+        HashSet<String> requested = new HashSet<String>();
+        for (int i = 0; i < forecast.size(); i++) {
+            int weatherId = forecast.get(i).weatherId;
+            boolean today = i == 0 && useTodayLayout;
+            String url = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+            int size = today ? mTodayIconSize : mListIconSize;
+            if (null != url && requested.add(url + "@" + size)) {
+                buildRequest(url, weatherId, today).preload(size, size);
+            }
+        }
+    }
+
+    /**
+     * Loads the art image for the given condition into the view, using the same request
+     * parameters as {@link #preload(ForecastSnapshot, boolean)}.
+     */
+    void into(ImageView imageView, int weatherId, boolean today) {
+        String url = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+        buildRequest(url, weatherId, today).into(imageView);
+    }
+
+    private DrawableRequestBuilder<String> buildRequest(String url, int weatherId, boolean today) {
+        int size = today ? mTodayIconSize : mListIconSize;
+        int defaultImage = today
+                ? Utility.getArtResourceForWeatherCondition(weatherId)
+                : Utility.getIconResourceForWeatherCondition(weatherId);
+        // Fixing both the size and the transformation keeps the cache key identical between
+        // the preload and the bind, regardless of the ImageView's scale type.
+        return Glide.with(mContext)
+                .load(url)
+                .override(size, size)
+                .fitCenter()
+                .error(defaultImage)
+                .crossFade();
+    }
+}
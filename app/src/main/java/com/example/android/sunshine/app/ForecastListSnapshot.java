@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The forecast list as it was last rendered, already formatted for display, persisted in a small
+ * binary file.  It is written after each sync and read by the {@link ForecastFragment} while the
+ * forecast is still loading, so the first frame after a cold start already shows the forecast
+ * without waiting on the database.
+ *
+ * Because the rows hold formatted text ("Today", "Tomorrow", temperatures in the current units),
+ * a snapshot is only used on the day it was written, for the location, units and locale it was
+ * written for.
+ */
+public class ForecastListSnapshot {
+    private static final String LOG_TAG = ForecastListSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast_list.snapshot";
+    // Bump whenever the file layout changes, so older files are ignored rather than misread
+    private static final int VERSION = 1;
+
+    /**
+     * A forecast row, with every string already formatted for display.
+     */
+    public static final class Row {
+        public final long date;
+        public final int weatherId;
+        public final String dateText;
+        public final String description;
+        public final String high;
+        public final String low;
+
+        Row(long date, int weatherId, String dateText, String description, String high, String low) {
+            this.date = date;
+            this.weatherId = weatherId;
+            this.dateText = dateText;
+            this.description = description;
+            this.high = high;
+            this.low = low;
+        }
+    }
+
+    private final String mTodayText;
+    private final List<Row> mRows;
+
+    private ForecastListSnapshot(String todayText, List<Row> rows) {
+        mTodayText = todayText;
+        mRows = Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * @return the date of the first row in the long form used by the today layout
+     *         ("Today, June 8")
+     */
+    public String getTodayText() {
+        return mTodayText;
+    }
+
+    public int size() {
+        return mRows.size();
+    }
+
+    public Row get(int position) {
+        return mRows.get(position);
+    }
+
+    /**
+     * Formats the forecast the way the forecast list shows it and replaces the stored snapshot.
+     * This does disk I/O and must not be called on the main thread.
+     */
+    public static void write(Context context, ForecastSnapshot forecast) {
+        AtomicFile file = getFile(context);
+        if (forecast.isEmpty()) {
+            file.delete();
+            return;
+        }
+
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(VERSION);
+            out.writeUTF(forecast.getLocationSetting());
+            out.writeBoolean(Utility.isMetric(context));
+            out.writeUTF(Locale.getDefault().toString());
+            out.writeLong(forecast.getStartDate());
+            out.writeUTF(Utility.getFriendlyDayString(context, forecast.get(0).date, true));
+            out.writeInt(forecast.size());
+            for (ForecastSnapshot.Day day : forecast.getDays()) {
+                out.writeLong(day.date);
+                out.writeInt(day.weatherId);
+                out.writeUTF(Utility.getFriendlyDayString(context, day.date, false));
+                out.writeUTF(Utility.getStringForWeatherCondition(context, day.weatherId));
+                out.writeUTF(Utility.formatTemperature(context, day.maxTemp));
+                out.writeUTF(Utility.formatTemperature(context, day.minTemp));
+            }
+            out.flush();
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing forecast list snapshot", e);
+            file.failWrite(fos);
+        }
+    }
+
+    /**
+     * Reads the stored snapshot.  This reads a few hundred bytes from disk; it is cheap enough to
+     * do while the forecast list is created, which is the whole point.
+     *
+     * @return the snapshot, or null if there is none that can be shown for the preferred
+     *         location, the current units and today's date
+     */
+    public static ForecastListSnapshot read(Context context) {
+        AtomicFile file = getFile(context);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            if (in.readInt() != VERSION
+                    || !in.readUTF().equals(Utility.getPreferredLocation(context))
+                    || in.readBoolean() != Utility.isMetric(context)
+                    || !in.readUTF().equals(Locale.getDefault().toString())
+                    || in.readLong() != WeatherContract.normalizeDate(System.currentTimeMillis())) {
+                return null;
+            }
+            String todayText = in.readUTF();
+            int count = in.readInt();
+            ArrayList<Row> rows = new ArrayList<Row>(count);
+            for (int i = 0; i < count; i++) {
+                rows.add(new Row(in.readLong(), in.readInt(), in.readUTF(), in.readUTF(),
+                        in.readUTF(), in.readUTF()));
+            }
+            return new ForecastListSnapshot(todayText, rows);
+        } catch (FileNotFoundException e) {
+            // Nothing has been synced yet
+            return null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading forecast list snapshot", e);
+            return null;
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing left to do with it anyway
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the stored snapshot if it is of the given location, as when the location is now
+     * stored under another setting and the snapshot could never be shown again.  This does disk
+     * I/O and must not be called on the main thread.
+     */
+    public static void delete(Context context, String locationSetting) {
+        AtomicFile file = getFile(context);
+        DataInputStream in = null;
+        boolean matches = false;
+        try {
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            matches = in.readInt() == VERSION && in.readUTF().equals(locationSetting);
+        } catch (IOException e) {
+            // Nothing stored, or nothing that could be shown anyway
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing left to do with it anyway
+                }
+            }
+        }
+        if (matches) {
+            file.delete();
+        }
+    }
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+}
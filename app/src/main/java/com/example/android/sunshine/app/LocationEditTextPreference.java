@@ -27,9 +27,14 @@ import android.text.TextWatcher;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.AdapterView;
+import android.widget.AutoCompleteTextView;
 import android.widget.Button;
 import android.widget.EditText;
 
+import com.example.android.sunshine.app.data.CityIndex;
+
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.common.GooglePlayServicesNotAvailableException;
@@ -39,6 +44,10 @@ import com.google.android.gms.location.places.ui.PlacePicker;
 public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
     private int mMinLength;
+    // Shown in place of the plain EditText of EditTextPreference
+    private final AutoCompleteTextView mAutoComplete;
+    private final CitySuggestionAdapter mSuggestions;
+    private CityIndex.City mSelectedCity;
 
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -52,6 +61,18 @@ public class LocationEditTextPreference extends EditTextPreference {
             a.recycle();
         }
 
+        // Suggest cities from the bundled index as the user types
+        mSuggestions = new CitySuggestionAdapter(context);
+        mAutoComplete = new AutoCompleteTextView(context, attrs);
+        mAutoComplete.setId(android.R.id.edit);
+        mAutoComplete.setThreshold(mMinLength);
+        mAutoComplete.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                mSelectedCity = mSuggestions.getItem(position);
+            }
+        });
+
         // Check to see if Google Play services is available. The Place Picker API is available
         // through Google Play services, so if this is false, we'll just carry on as though this
         // feature does not exist. If it is true, however, we can add a widget to our preference.
@@ -103,6 +124,51 @@ public class LocationEditTextPreference extends EditTextPreference {
         return view;
     }
 
+    @Override
+    public EditText getEditText() {
+        return mAutoComplete;
+    }
+
+    /**
+     * @return the city picked from the suggestions, if the location is still set to it
+     */
+    public CityIndex.City getSelectedCity(String location) {
+        return null != mSelectedCity && mSelectedCity.getDisplayName().equals(location)
+                ? mSelectedCity : null;
+    }
+
+    @Override
+    protected void onBindDialogView(View view) {
+        super.onBindDialogView(view);
+        mSelectedCity = null;
+        // Without an adapter while the current value is set, so the suggestions don't pop up
+        // before anything was typed
+        mAutoComplete.setAdapter(null);
+        mAutoComplete.setText(getText());
+        mAutoComplete.setSelection(mAutoComplete.length());
+        mAutoComplete.setAdapter(mSuggestions);
+    }
+
+    @Override
+    protected void onAddEditTextToDialogView(View dialogView, EditText editText) {
+        ViewParent oldParent = mAutoComplete.getParent();
+        if (oldParent != dialogView && oldParent instanceof ViewGroup) {
+            ((ViewGroup) oldParent).removeView(mAutoComplete);
+        }
+        super.onAddEditTextToDialogView(dialogView, mAutoComplete);
+    }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        // Not calling through, since EditTextPreference would read its own EditText
+        if (positiveResult) {
+            String value = mAutoComplete.getText().toString();
+            if (callChangeListener(value)) {
+                setText(value);
+            }
+        }
+    }
+
     @Override
     protected void showDialog(Bundle state) {
         super.showDialog(state);
@@ -29,8 +29,10 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
+import com.example.android.sunshine.app.data.CityIndex;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.UpdateDispatcher;
 import com.google.android.gms.location.places.Place;
 import com.google.android.gms.location.places.ui.PlacePicker;
 import com.google.android.gms.maps.model.LatLng;
@@ -155,10 +157,28 @@ public class SettingsActivity extends PreferenceActivity
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if ( key.equals(getString(R.string.pref_location_key)) ) {
             // we've changed the location
-            // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
             SharedPreferences.Editor editor = sharedPreferences.edit();
-            editor.remove(getString(R.string.pref_location_latitude));
-            editor.remove(getString(R.string.pref_location_longitude));
+            LocationEditTextPreference locationPreference =
+                    (LocationEditTextPreference) findPreference(key);
+            String location = Utility.getPreferredLocation(this);
+            CityIndex.City city = locationPreference.getSelectedCity(location);
+            if (null == city) {
+                // A bundled city typed out in full resolves just as well.  Typing it had the
+                // suggestions map the index already, so this is normally just a lookup
+                CityIndex index = CityIndex.getInstance(this);
+                city = null == index ? null : index.find(location);
+            }
+            if (null != city) {
+                // A bundled city comes with its coordinates, so the sync doesn't have to rely
+                // on the weather service recognizing the name
+                editor.putFloat(getString(R.string.pref_location_latitude), city.latitude);
+                editor.putFloat(getString(R.string.pref_location_longitude), city.longitude);
+            } else {
+                // Wipe out any potential PlacePicker latlng values so that we can use this text
+                // entry.
+                editor.remove(getString(R.string.pref_location_latitude));
+                editor.remove(getString(R.string.pref_location_longitude));
+            }
             editor.commit();
 
             // Remove attributions for our any PlacePicker locations.
@@ -171,6 +191,9 @@ public class SettingsActivity extends PreferenceActivity
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // the widgets and the wearable show temperatures too
+            UpdateDispatcher.getInstance(this).requestUpdate(
+                    UpdateDispatcher.CONSUMER_WIDGETS | UpdateDispatcher.CONSUMER_WEARABLE);
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
@@ -178,6 +201,8 @@ public class SettingsActivity extends PreferenceActivity
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // the detail widget shows the art as well
+            UpdateDispatcher.getInstance(this).requestUpdate(UpdateDispatcher.CONSUMER_WIDGETS);
         }
     }
 
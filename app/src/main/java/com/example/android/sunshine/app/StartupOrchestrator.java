@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.support.v4.os.TraceCompat;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.google.android.gms.common.GoogleApiAvailability;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Runs the parts of app startup that aren't needed to draw the forecast, once the first
+ * frame has been drawn.  The account lookup and Play Services check involve IPC and disk reads,
+ * so they run on a background thread; only their results are delivered to the main thread.
+ *
+ * Each step is wrapped in a trace section, so its cost shows up in systrace under
+ * "Startup:&lt;step&gt;".
+ *
+ * The activity must call {@link #cancel()} when it is destroyed.  The results are dropped once
+ * it is gone, including when it was only destroyed for a configuration change, since the new
+ * instance starts its own.
+ */
+class StartupOrchestrator {
+
+    /**
+     * Receives the results of the deferred startup steps on the main thread.
+     */
+    interface Callback {
+        /**
+         * @param playServicesResult result of
+         *        {@link GoogleApiAvailability#isGooglePlayServicesAvailable(Context)}
+         * @param sentTokenToServer whether the GCM token has already been sent to the server
+         */
+        void onPlayServicesChecked(int playServicesResult, boolean sentTokenToServer);
+    }
+
+    // Usually the activity itself, so neither is kept alive by the background work
+    private final WeakReference<Activity> mActivity;
+    private final WeakReference<Callback> mCallback;
+    private DeferredStartupTask mTask;
+    private boolean mCancelled;
+
+    StartupOrchestrator(Activity activity, Callback callback) {
+        mActivity = new WeakReference<Activity>(activity);
+        mCallback = new WeakReference<Callback>(callback);
+    }
+
+    /**
+     * Schedules the deferred steps to start right after the first frame is drawn.
+     */
+    void start() {
+        final Activity activity = mActivity.get();
+        if (null == activity) {
+            return;
+        }
+        final Context appContext = activity.getApplicationContext();
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Posting from the pre-draw pass puts us after the draw of this frame
+                decorView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mCancelled) {
+                            mTask = new DeferredStartupTask(appContext);
+                            mTask.execute();
+                        }
+                    }
+                });
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Drops the results of the deferred steps.  Must be called on the main thread.
+     */
+    void cancel() {
+        mCancelled = true;
+        if (null != mTask) {
+            // The steps themselves are cheap enough to let finish
+            mTask.cancel(false);
+            mTask = null;
+        }
+    }
+
+    private boolean isActivityGone() {
+        Activity activity = mActivity.get();
+        if (null == activity || activity.isFinishing()) {
+            return true;
+        }
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1
+                && activity.isDestroyed();
+    }
+
+    private class DeferredStartupTask extends AsyncTask<Void, Void, Void> {
+        private final Context mContext;
+        private int mPlayServicesResult;
+        private boolean mSentTokenToServer;
+
+        DeferredStartupTask(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            // Looks up (and on first launch creates) the sync account, which also
+            // schedules the periodic sync.
+            TraceCompat.beginSection("Startup:initializeSyncAdapter");
+            try {
+                SunshineSyncAdapter.initializeSyncAdapter(mContext);
+            } finally {
+                TraceCompat.endSection();
+            }
+
+            TraceCompat.beginSection("Startup:checkPlayServices");
+            try {
+                mPlayServicesResult = GoogleApiAvailability.getInstance()
+                        .isGooglePlayServicesAvailable(mContext);
+            } finally {
+                TraceCompat.endSection();
+            }
+
+            TraceCompat.beginSection("Startup:readGcmState");
+            try {
+                SharedPreferences sharedPreferences =
+                        PreferenceManager.getDefaultSharedPreferences(mContext);
+                mSentTokenToServer = sharedPreferences.getBoolean(
+                        MainActivity.SENT_TOKEN_TO_SERVER, false);
+            } finally {
+                TraceCompat.endSection();
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            mTask = null;
+            Callback callback = mCallback.get();
+            if (mCancelled || null == callback || isActivityGone()) {
+                return;
+            }
+            callback.onPlayServicesChecked(mPlayServicesResult, mSentTokenToServer);
+        }
+    }
+}
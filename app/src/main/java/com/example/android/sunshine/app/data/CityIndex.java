@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * The cities bundled with the app ({@link #ASSET}), for suggesting locations as the user types
+ * and resolving the one picked to coordinates without a round trip to the weather service.
+ *
+ * On first use (and after each update of the app) the list is sorted by a normalized key,
+ * "name, country" in lower case without accents, and written to a binary file that is
+ * memory-mapped from then on.  A suggestion is a binary search for the prefix over the mapping,
+ * so nothing is parsed or kept on the heap.
+ *
+ * Layout, big-endian:
+ * <pre>
+ *   int    magic ("SUNC")
+ *   int    version
+ *   long   time the app was last updated when the index was built, in millis
+ *   int    number of cities
+ *   int    offset of each city, in key order
+ *   cities, each:
+ *     short length of the key, followed by its UTF-8 bytes
+ *     short length of the name, followed by its UTF-8 bytes
+ *     2 bytes ISO country code, float latitude, float longitude, int OpenWeatherMap city id
+ * </pre>
+ */
+public final class CityIndex {
+    private static final String LOG_TAG = CityIndex.class.getSimpleName();
+
+    static final String ASSET = "cities.tsv";
+    private static final String FILE_NAME = "city_index";
+    private static final int MAGIC = 0x53554E43;
+    // Bump whenever the layout or the key changes
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{Mn}+");
+
+    private static CityIndex sInstance;
+    // Set once the index couldn't be built, so it isn't tried again for every keystroke
+    private static boolean sUnavailable;
+
+    private final ByteBuffer mBuffer;
+    private final int mCount;
+
+    public static final class City {
+        public final String name;
+        public final String country;
+        public final float latitude;
+        public final float longitude;
+        public final int owmId;
+
+        City(String name, String country, float latitude, float longitude, int owmId) {
+            this.name = name;
+            this.country = country;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.owmId = owmId;
+        }
+
+        /**
+         * @return the city as it is stored in the location setting, e.g. "London, GB"
+         */
+        public String getDisplayName() {
+            return name + ", " + country;
+        }
+
+        @Override
+        public String toString() {
+            return getDisplayName();
+        }
+    }
+
+    private CityIndex(ByteBuffer buffer, long appUpdatedAt) throws IOException {
+        mBuffer = buffer;
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a city index of version " + VERSION);
+        }
+        if (buffer.getLong(8) != appUpdatedAt) {
+            throw new IOException("City index built for another version of the app");
+        }
+        mCount = buffer.getInt(16);
+        if (buffer.limit() < HEADER_SIZE + mCount * 4) {
+            throw new IOException("Truncated city index");
+        }
+    }
+
+    /**
+     * Maps the index, building it from the bundled list first if needed.  This may do a lot of
+     * disk I/O, so it must not be called on the main thread.
+     *
+     * @return the index, or null if it can't be built
+     */
+    public static synchronized CityIndex getInstance(Context context) {
+        if (null == sInstance && !sUnavailable) {
+            Context appContext = context.getApplicationContext();
+            File file = new File(appContext.getFilesDir(), FILE_NAME);
+            long appUpdatedAt = getAppUpdatedAt(appContext);
+            sInstance = open(file, appUpdatedAt);
+            if (null == sInstance && build(appContext, file, appUpdatedAt)) {
+                sInstance = open(file, appUpdatedAt);
+            }
+            sUnavailable = null == sInstance;
+        }
+        return sInstance;
+    }
+
+    private static long getAppUpdatedAt(Context context) {
+        try {
+            return context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            // We are running, so we are installed
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static CityIndex open(File file, long appUpdatedAt) {
+        FileInputStream in = null;
+        try {
+            in = new AtomicFile(file).openRead();
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new CityIndex(buffer, appUpdatedAt);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Rebuilding city index: " + e.getMessage());
+            return null;
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // The mapping is all we needed
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        final byte[] key;
+        final byte[] name;
+        final byte[] country;
+        final float latitude;
+        final float longitude;
+        final int owmId;
+
+        Entry(String name, String country, float latitude, float longitude, int owmId)
+                throws UnsupportedEncodingException {
+            this.key = normalize(name + ", " + country).getBytes("UTF-8");
+            this.name = name.getBytes("UTF-8");
+            this.country = country.getBytes("US-ASCII");
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.owmId = owmId;
+        }
+
+        int size() {
+            return 2 + key.length + 2 + name.length + 2 + 4 + 4 + 4;
+        }
+    }
+
+    private static boolean build(Context context, File file, long appUpdatedAt) {
+        long start = System.currentTimeMillis();
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(
+                    new InputStreamReader(context.getAssets().open(ASSET), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length != 5 || fields[1].length() != 2) {
+                    Log.w(LOG_TAG, "Skipping malformed city: " + line);
+                    continue;
+                }
+                entries.add(new Entry(fields[0], fields[1], Float.parseFloat(fields[2]),
+                        Float.parseFloat(fields[3]), Integer.parseInt(fields[4])));
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.e(LOG_TAG, "Error reading " + ASSET, e);
+            return false;
+        } finally {
+            if (null != reader) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // It was only read
+                }
+            }
+        }
+
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                int diff = compareBytes(lhs.key, rhs.key, rhs.key.length);
+                return diff != 0 ? diff : lhs.key.length - rhs.key.length;
+            }
+        });
+
+        int size = HEADER_SIZE + entries.size() * 4;
+        for (Entry entry : entries) {
+            size += entry.size();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(appUpdatedAt)
+                .putInt(entries.size());
+        int offset = HEADER_SIZE + entries.size() * 4;
+        for (Entry entry : entries) {
+            buffer.putInt(offset);
+            offset += entry.size();
+        }
+        for (Entry entry : entries) {
+            buffer.putShort((short) entry.key.length)
+                    .put(entry.key)
+                    .putShort((short) entry.name.length)
+                    .put(entry.name)
+                    .put(entry.country)
+                    .putFloat(entry.latitude)
+                    .putFloat(entry.longitude)
+                    .putInt(entry.owmId);
+        }
+
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream fos = null;
+        try {
+            fos = atomicFile.startWrite();
+            fos.write(buffer.array());
+            atomicFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing city index", e);
+            atomicFile.failWrite(fos);
+            return false;
+        }
+        Log.d(LOG_TAG, "Indexed " + entries.size() + " cities in "
+                + (System.currentTimeMillis() - start) + "ms");
+        return true;
+    }
+
+    /**
+     * @return the text in the form it is looked up in: lower case, without accents
+     */
+    static String normalize(CharSequence text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return DIACRITICS.matcher(decomposed).replaceAll("").toLowerCase(Locale.US);
+    }
+
+    /**
+     * Compares UTF-8 bytes, which orders them like the code points they encode.  Only the first
+     * {@code length} bytes of {@code rhs} are considered, so a key starting with a prefix compares
+     * equal to it.
+     */
+    private static int compareBytes(byte[] lhs, byte[] rhs, int length) {
+        int n = Math.min(lhs.length, length);
+        for (int i = 0; i < n; i++) {
+            int diff = (lhs[i] & 0xff) - (rhs[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return lhs.length < length ? -1 : 0;
+    }
+
+    /**
+     * Compares the key of the city at {@code index} with the first {@code length} bytes of
+     * {@code prefix}, straight from the mapping.
+     */
+    private int compareKey(int index, byte[] prefix, int length) {
+        int offset = mBuffer.getInt(HEADER_SIZE + index * 4);
+        int keyLength = mBuffer.getShort(offset);
+        int n = Math.min(keyLength, length);
+        for (int i = 0; i < n; i++) {
+            int diff = (mBuffer.get(offset + 2 + i) & 0xff) - (prefix[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return keyLength < length ? -1 : 0;
+    }
+
+    /**
+     * @return the index of the first city whose key doesn't sort before the prefix
+     */
+    private int lowerBound(byte[] prefix) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareKey(mid, prefix, prefix.length) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private City readCity(int index) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(mBuffer.getInt(HEADER_SIZE + index * 4));
+        // Skip the key
+        buffer.position(buffer.position() + 2 + buffer.getShort());
+        byte[] name = new byte[buffer.getShort()];
+        buffer.get(name);
+        byte[] country = new byte[2];
+        buffer.get(country);
+        try {
+            return new City(new String(name, "UTF-8"), new String(country, "US-ASCII"),
+                    buffer.getFloat(), buffer.getFloat(), buffer.getInt());
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new RuntimeException(e);
+        }
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return up to {@code limit} cities whose name (followed by ", " and the country) starts
+     *         with the given text, ignoring case and accents, in alphabetical order
+     */
+    public List<City> suggest(CharSequence prefix, int limit) {
+        ArrayList<City> cities = new ArrayList<City>();
+        byte[] key;
+        try {
+            key = normalize(prefix).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new RuntimeException(e);
+        }
+        if (key.length == 0) {
+            return cities;
+        }
+        for (int i = lowerBound(key); i < mCount && cities.size() < limit; i++) {
+            if (compareKey(i, key, key.length) != 0) {
+                break;
+            }
+            cities.add(readCity(i));
+        }
+        return cities;
+    }
+
+    /**
+     * @return the city with the given display name, ignoring case and accents, or null if there
+     *         is none
+     */
+    public City find(String displayName) {
+        // The city itself sorts before any other starting with its name
+        List<City> candidates = suggest(displayName.trim(), 1);
+        if (candidates.isEmpty() || !normalize(candidates.get(0).getDisplayName())
+                .equals(normalize(displayName.trim()))) {
+            return null;
+        }
+        return candidates.get(0);
+    }
+}
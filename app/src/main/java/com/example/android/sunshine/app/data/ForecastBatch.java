@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The days of a forecast on their way from the parser into the database, one primitive array per
+ * column, rather than one {@link ContentValues} (a map of boxed values) per day.
+ *
+ * Descriptions repeat a lot from day to day ("Clear", "Clouds"), so each distinct one is stored
+ * once and the days refer to it by index.
+ */
+public final class ForecastBatch {
+    private final long mLocationId;
+
+    private int mSize;
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private int[] mDescriptionIndexes;
+    private double[] mMaxTemps;
+    private double[] mMinTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    private final ArrayList<String> mDescriptions = new ArrayList<String>();
+    private final HashMap<String, Integer> mDescriptionIndex = new HashMap<String, Integer>();
+
+    /**
+     * @param locationId the row ID of the location all the days are for
+     * @param capacity   the number of days expected; more can be added
+     */
+    public ForecastBatch(long locationId, int capacity) {
+        mLocationId = locationId;
+        capacity = Math.max(capacity, 1);
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mDescriptionIndexes = new int[capacity];
+        mMaxTemps = new double[capacity];
+        mMinTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    public void add(long date, int weatherId, String shortDesc, double maxTemp, double minTemp,
+            double humidity, double pressure, double windSpeed, double degrees) {
+        if (mSize == mDates.length) {
+            grow();
+        }
+        Integer index = mDescriptionIndex.get(shortDesc);
+        if (null == index) {
+            index = mDescriptions.size();
+            mDescriptions.add(shortDesc);
+            mDescriptionIndex.put(shortDesc, index);
+        }
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mDescriptionIndexes[mSize] = index;
+        mMaxTemps[mSize] = maxTemp;
+        mMinTemps[mSize] = minTemp;
+        mHumidities[mSize] = humidity;
+        mPressures[mSize] = pressure;
+        mWindSpeeds[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    private void grow() {
+        int capacity = mDates.length * 2;
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mDescriptionIndexes = Arrays.copyOf(mDescriptionIndexes, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    public long getLocationId() {
+        return mLocationId;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getDate(int day) {
+        return mDates[day];
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public String getShortDesc(int day) {
+        return mDescriptions.get(mDescriptionIndexes[day]);
+    }
+
+    public double getMaxTemp(int day) {
+        return mMaxTemps[day];
+    }
+
+    public double getMinTemp(int day) {
+        return mMinTemps[day];
+    }
+
+    public double getHumidity(int day) {
+        return mHumidities[day];
+    }
+
+    public double getPressure(int day) {
+        return mPressures[day];
+    }
+
+    public double getWindSpeed(int day) {
+        return mWindSpeeds[day];
+    }
+
+    public double getDegrees(int day) {
+        return mDegrees[day];
+    }
+
+    /**
+     * @return the days as rows for {@link ContentResolver#bulkInsert}
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] values = new ContentValues[mSize];
+        for (int i = 0; i < mSize; i++) {
+            ContentValues day = new ContentValues();
+            day.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+            day.put(WeatherContract.WeatherEntry.COLUMN_DATE, mDates[i]);
+            day.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, mHumidities[i]);
+            day.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, mPressures[i]);
+            day.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[i]);
+            day.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, mDegrees[i]);
+            day.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[i]);
+            day.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[i]);
+            day.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, getShortDesc(i));
+            day.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[i]);
+            values[i] = day;
+        }
+        return values;
+    }
+
+    /**
+     * Writes the days to the weather table.  When the provider runs in this process it takes the
+     * batch as it is; otherwise the days go through {@link ContentResolver#bulkInsert}.  This
+     * does disk I/O and must not be called on the main thread.
+     *
+     * @return the number of days written
+     */
+    public int insert(ContentResolver resolver) {
+        ContentProviderClient client =
+                resolver.acquireContentProviderClient(WeatherContract.WeatherEntry.CONTENT_URI);
+        if (null != client) {
+            try {
+                ContentProvider provider = client.getLocalContentProvider();
+                if (provider instanceof WeatherProvider) {
+                    return ((WeatherProvider) provider).insertForecast(this);
+                }
+            } finally {
+                client.release();
+            }
+        }
+        return resolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, toContentValues());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.support.v4.content.AsyncTaskLoader;
+
+/**
+ * Loads the {@link ForecastSnapshot} for a location through the shared
+ * {@link ForecastRepository}, and reloads whenever the repository reports that it changed.
+ * Loaders for the same location share the same snapshot (and the same query).
+ */
+public class ForecastLoader extends AsyncTaskLoader<ForecastSnapshot>
+        implements ForecastRepository.Listener {
+
+    private final ForecastRepository mRepository;
+    private final String mLocationSetting;
+    private boolean mRegistered;
+
+    public ForecastLoader(Context context, String locationSetting) {
+        super(context);
+        mRepository = ForecastRepository.getInstance(context);
+        mLocationSetting = locationSetting;
+    }
+
+    @Override
+    public ForecastSnapshot loadInBackground() {
+        return mRepository.getForecast(mLocationSetting);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mRegistered) {
+            mRepository.registerListener(this);
+            mRegistered = true;
+        }
+        // Another screen may already have loaded this location; if so there's no need to
+        // go to a background thread at all
+        ForecastSnapshot cached = mRepository.getCachedForecast(mLocationSetting);
+        if (null != cached) {
+            takeContentChanged();
+            deliverResult(cached);
+        } else {
+            // Either we never loaded, or our snapshot has since been invalidated
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mRegistered) {
+            mRepository.unregisterListener(this);
+            mRegistered = false;
+        }
+    }
+
+    @Override
+    public void onForecastChanged(String locationSetting) {
+        if (null == locationSetting || locationSetting.equals(mLocationSetting)) {
+            onContentChanged();
+        }
+    }
+}
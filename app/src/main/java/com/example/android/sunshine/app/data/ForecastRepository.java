@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * In-process cache of the forecast for each location.  The forecast for a location is queried
+ * from the {@link WeatherProvider} once, and the resulting {@link ForecastSnapshot} is handed to
+ * every caller until the provider reports a change for that location (or the day rolls over).
+ *
+ * Listeners are told on the main thread when a snapshot they may hold has gone stale, so they
+ * can ask for a fresh one.
+ */
+public class ForecastRepository {
+
+    /**
+     * Notified on the main thread when cached forecasts are invalidated.
+     */
+    public interface Listener {
+        /**
+         * @param locationSetting the location whose forecast changed, or null if any location
+         *                        may have changed
+         */
+        void onForecastChanged(String locationSetting);
+    }
+
+    private static ForecastRepository sInstance;
+
+    private final Context mContext;
+    private final HashMap<String, ForecastSnapshot> mSnapshots =
+            new HashMap<String, ForecastSnapshot>();
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Serializes queries, without holding up readers of the cache on the main thread
+    private final Object mLoadLock = new Object();
+
+    // Incremented on every invalidation, so a query that raced with a change isn't cached
+    private int mGeneration;
+
+    public static synchronized ForecastRepository getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new ForecastRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    ForecastRepository(Context context) {
+        mContext = context;
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, new ContentObserver(mMainHandler) {
+                    // On earlier versions of Android, this onChange method is called
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        onChange(selfChange, null);
+                    }
+
+                    @Override
+                    public void onChange(boolean selfChange, Uri uri) {
+                        invalidate(getLocationSettingFromUri(uri));
+                    }
+                });
+    }
+
+    /**
+     * Returns the cached forecast for the location without touching the database.
+     *
+     * @return the snapshot, or null if there is no up to date snapshot for the location
+     */
+    public synchronized ForecastSnapshot getCachedForecast(String locationSetting) {
+        ForecastSnapshot snapshot = mSnapshots.get(locationSetting);
+        if (null != snapshot
+                && snapshot.getStartDate() != WeatherContract.normalizeDate(System.currentTimeMillis())) {
+            // The first day of the snapshot is now in the past
+            mSnapshots.remove(locationSetting);
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the forecast for the location, starting today, querying the provider if there is
+     * no up to date snapshot.  Concurrent callers asking for the same location share one query.
+     * This must not be called on the main thread.
+     */
+    public ForecastSnapshot getForecast(String locationSetting) {
+        synchronized (mLoadLock) {
+            ForecastSnapshot snapshot = getCachedForecast(locationSetting);
+            if (null != snapshot) {
+                return snapshot;
+            }
+            int generation;
+            synchronized (this) {
+                generation = mGeneration;
+            }
+
+            long startDate = WeatherContract.normalizeDate(System.currentTimeMillis());
+            Uri weatherForLocationUri = WeatherContract.WeatherEntry
+                    .buildWeatherLocationWithStartDate(locationSetting, startDate);
+            Cursor cursor = mContext.getContentResolver().query(weatherForLocationUri,
+                    ForecastSnapshot.FORECAST_COLUMNS,
+                    null,
+                    null,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            if (null == cursor) {
+                return new ForecastSnapshot(locationSetting, startDate, 0, 0,
+                        new ArrayList<ForecastSnapshot.Day>());
+            }
+            try {
+                snapshot = ForecastSnapshot.fromCursor(locationSetting, startDate, cursor);
+            } finally {
+                cursor.close();
+            }
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    mSnapshots.put(locationSetting, snapshot);
+                }
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Like {@link #getForecast(String)}, but always queries the provider.  Use this right after
+     * writing to the provider, before its change notification has had a chance to arrive.
+     */
+    public ForecastSnapshot refreshForecast(String locationSetting) {
+        invalidate(locationSetting);
+        return getForecast(locationSetting);
+    }
+
+    public void registerListener(Listener listener) {
+        synchronized (mListeners) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void unregisterListener(Listener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Drops the cached forecast for the location (or all locations if null) and tells the
+     * listeners about it.
+     */
+    void invalidate(final String locationSetting) {
+        synchronized (this) {
+            mGeneration++;
+            if (null == locationSetting) {
+                mSnapshots.clear();
+            } else {
+                mSnapshots.remove(locationSetting);
+            }
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Listener[] listeners;
+                synchronized (mListeners) {
+                    listeners = mListeners.toArray(new Listener[mListeners.size()]);
+                }
+                for (Listener listener : listeners) {
+                    listener.onForecastChanged(locationSetting);
+                }
+            }
+        });
+    }
+
+    /*
+        Change notifications for "weather/<location>..." only concern one location; anything
+        else (a bulk insert on "weather", a units change) may concern all of them.
+     */
+    static String getLocationSettingFromUri(Uri uri) {
+        if (null != uri && uri.getPathSegments().size() >= 2) {
+            return WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable copy of the forecast for one location, starting at the day it was loaded.
+ * Because it can't change once built, a single snapshot is safely shared between the forecast
+ * list, the detail view and the widgets.
+ */
+public final class ForecastSnapshot {
+
+    // All of the columns any consumer of the forecast needs, so one query serves everybody
+    static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // These indices are tied to FORECAST_COLUMNS.  If FORECAST_COLUMNS changes, these
+    // must change.
+    static final int COL_ID = 0;
+    static final int COL_DATE = 1;
+    static final int COL_WEATHER_ID = 2;
+    static final int COL_SHORT_DESC = 3;
+    static final int COL_MAX_TEMP = 4;
+    static final int COL_MIN_TEMP = 5;
+    static final int COL_HUMIDITY = 6;
+    static final int COL_PRESSURE = 7;
+    static final int COL_WIND_SPEED = 8;
+    static final int COL_DEGREES = 9;
+    static final int COL_COORD_LAT = 10;
+    static final int COL_COORD_LONG = 11;
+
+    /**
+     * The weather for a single day.
+     */
+    public static final class Day {
+        public final long id;
+        public final long date;
+        public final int weatherId;
+        public final String shortDesc;
+        public final double maxTemp;
+        public final double minTemp;
+        public final float humidity;
+        public final float pressure;
+        public final float windSpeed;
+        public final float degrees;
+
+        public Day(long id, long date, int weatherId, String shortDesc, double maxTemp,
+                   double minTemp, float humidity, float pressure, float windSpeed,
+                   float degrees) {
+            this.id = id;
+            this.date = date;
+            this.weatherId = weatherId;
+            this.shortDesc = shortDesc;
+            this.maxTemp = maxTemp;
+            this.minTemp = minTemp;
+            this.humidity = humidity;
+            this.pressure = pressure;
+            this.windSpeed = windSpeed;
+            this.degrees = degrees;
+        }
+    }
+
+    private final String mLocationSetting;
+    private final long mStartDate;
+    private final double mCoordLat;
+    private final double mCoordLong;
+    private final List<Day> mDays;
+
+    public ForecastSnapshot(String locationSetting, long startDate, double coordLat,
+                            double coordLong, List<Day> days) {
+        mLocationSetting = locationSetting;
+        mStartDate = startDate;
+        mCoordLat = coordLat;
+        mCoordLong = coordLong;
+        mDays = Collections.unmodifiableList(new ArrayList<Day>(days));
+    }
+
+    /**
+     * Builds a snapshot from a cursor over {@link #FORECAST_COLUMNS}, sorted by date.
+     */
+    static ForecastSnapshot fromCursor(String locationSetting, long startDate, Cursor cursor) {
+        ArrayList<Day> days = new ArrayList<Day>(cursor.getCount());
+        double lat = 0;
+        double lon = 0;
+        if (cursor.moveToFirst()) {
+            lat = cursor.getDouble(COL_COORD_LAT);
+            lon = cursor.getDouble(COL_COORD_LONG);
+            do {
+                days.add(new Day(
+                        cursor.getLong(COL_ID),
+                        cursor.getLong(COL_DATE),
+                        cursor.getInt(COL_WEATHER_ID),
+                        cursor.getString(COL_SHORT_DESC),
+                        cursor.getDouble(COL_MAX_TEMP),
+                        cursor.getDouble(COL_MIN_TEMP),
+                        cursor.getFloat(COL_HUMIDITY),
+                        cursor.getFloat(COL_PRESSURE),
+                        cursor.getFloat(COL_WIND_SPEED),
+                        cursor.getFloat(COL_DEGREES)));
+            } while (cursor.moveToNext());
+        }
+        return new ForecastSnapshot(locationSetting, startDate, lat, lon, days);
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    /**
+     * @return the normalized date of the first day this snapshot was loaded for
+     */
+    public long getStartDate() {
+        return mStartDate;
+    }
+
+    public double getCoordLat() {
+        return mCoordLat;
+    }
+
+    public double getCoordLong() {
+        return mCoordLong;
+    }
+
+    public List<Day> getDays() {
+        return mDays;
+    }
+
+    public int size() {
+        return mDays.size();
+    }
+
+    public boolean isEmpty() {
+        return mDays.isEmpty();
+    }
+
+    public Day get(int position) {
+        return mDays.get(position);
+    }
+
+    /**
+     * @param date a date, normalized as by {@link WeatherContract#normalizeDate(long)}
+     * @return the position of the given day, or -1 if it is not part of this forecast
+     */
+    public int indexOf(long date) {
+        for (int i = 0; i < mDays.size(); i++) {
+            if (mDays.get(i).date == date) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the given day, or null if it is not part of this forecast
+     */
+    public Day getDay(long date) {
+        int position = indexOf(date);
+        return position == -1 ? null : mDays.get(position);
+    }
+}
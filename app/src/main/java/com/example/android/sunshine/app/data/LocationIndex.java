@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The stored locations in a k-d tree, for finding the one nearest to a pair of coordinates, so
+ * that the same place entered two ways (a name, and coordinates from the Place Picker or the city
+ * suggestions) is stored and fetched once.
+ *
+ * Points are kept as unit vectors rather than latitude and longitude, so that the straight-line
+ * distance the tree prunes with grows with the distance on the earth everywhere, including
+ * across the poles and the antimeridian.
+ */
+public final class LocationIndex {
+
+    private static final double EARTH_RADIUS_METERS = 6371000;
+
+    private static final String[] LOCATION_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    public static final class Location {
+        public final long id;
+        public final String locationSetting;
+        public final double latitude;
+        public final double longitude;
+        final double[] mPoint;
+
+        public Location(long id, String locationSetting, double latitude, double longitude) {
+            this.id = id;
+            this.locationSetting = locationSetting;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            mPoint = toPoint(latitude, longitude);
+        }
+    }
+
+    // The tree, implicitly: each range is split at its middle element along the axis of its
+    // depth, with the lower half before it and the upper half after it
+    private final Location[] mLocations;
+
+    public LocationIndex(List<Location> locations) {
+        mLocations = locations.toArray(new Location[locations.size()]);
+        build(0, mLocations.length, 0);
+    }
+
+    /**
+     * Reads all stored locations.  This goes to the database, so it must not be called on the
+     * main thread.
+     */
+    public static LocationIndex query(ContentResolver resolver) {
+        ArrayList<Location> locations = new ArrayList<Location>();
+        Cursor cursor = resolver.query(WeatherContract.LocationEntry.CONTENT_URI,
+                LOCATION_COLUMNS, null, null, null);
+        if (null != cursor) {
+            try {
+                while (cursor.moveToNext()) {
+                    locations.add(new Location(cursor.getLong(0), cursor.getString(1),
+                            cursor.getDouble(2), cursor.getDouble(3)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return new LocationIndex(locations);
+    }
+
+    private static double[] toPoint(double latitude, double longitude) {
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        return new double[]{
+                Math.cos(lat) * Math.cos(lon),
+                Math.cos(lat) * Math.sin(lon),
+                Math.sin(lat)
+        };
+    }
+
+    private void build(int from, int to, final int depth) {
+        if (to - from < 2) {
+            return;
+        }
+        // The locations are few, so sorting each range is as good as selecting its median
+        final int axis = depth % 3;
+        Arrays.sort(mLocations, from, to, new Comparator<Location>() {
+            @Override
+            public int compare(Location lhs, Location rhs) {
+                return Double.compare(lhs.mPoint[axis], rhs.mPoint[axis]);
+            }
+        });
+        int mid = (from + to) >>> 1;
+        build(from, mid, depth + 1);
+        build(mid + 1, to, depth + 1);
+    }
+
+    public int size() {
+        return mLocations.length;
+    }
+
+    /**
+     * @return the stored location nearest to the coordinates, as long as it is within
+     *         {@code radiusMeters} of them, or null
+     */
+    public Location findNearest(double latitude, double longitude, double radiusMeters) {
+        double[] target = toPoint(latitude, longitude);
+        // The length of the chord spanning the radius on the unit sphere
+        double chord = 2 * Math.sin(Math.min(radiusMeters / EARTH_RADIUS_METERS, Math.PI) / 2);
+        Location[] best = new Location[1];
+        double[] bestDistance = {chord * chord};
+        search(0, mLocations.length, 0, target, best, bestDistance);
+        return best[0];
+    }
+
+    private void search(int from, int to, int depth, double[] target, Location[] best,
+            double[] bestDistance) {
+        if (from >= to) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        Location location = mLocations[mid];
+        double distance = squaredDistance(location.mPoint, target);
+        if (distance <= bestDistance[0]) {
+            bestDistance[0] = distance;
+            best[0] = location;
+        }
+
+        int axis = depth % 3;
+        double diff = target[axis] - location.mPoint[axis];
+        // The side the target is on first, then the other one if it may still hold anything
+        // closer
+        if (diff < 0) {
+            search(from, mid, depth + 1, target, best, bestDistance);
+            if (diff * diff <= bestDistance[0]) {
+                search(mid + 1, to, depth + 1, target, best, bestDistance);
+            }
+        } else {
+            search(mid + 1, to, depth + 1, target, best, bestDistance);
+            if (diff * diff <= bestDistance[0]) {
+                search(from, mid, depth + 1, target, best, bestDistance);
+            }
+        }
+    }
+
+    private static double squaredDistance(double[] a, double[] b) {
+        double dx = a[0] - b[0];
+        double dy = a[1] - b[1];
+        double dz = a[2] - b[2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * @return the great-circle distance between two pairs of coordinates, in meters
+     */
+    public static double distanceMeters(double latitude1, double longitude1, double latitude2,
+            double longitude2) {
+        double chord = Math.sqrt(squaredDistance(toPoint(latitude1, longitude1),
+                toPoint(latitude2, longitude2)));
+        return 2 * Math.asin(Math.min(chord / 2, 1)) * EARTH_RADIUS_METERS;
+    }
+}
@@ -18,20 +18,62 @@ package com.example.android.sunshine.app.data;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * Schema changes are made as {@link Migration}s: to change the schema, change
+ * {@link #onCreate} for new installs, and add a migration taking the previous version's
+ * database to the new one, keeping its data, for everyone else.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
+    // If you change the database schema, you must increment the database version, and add a
+    // migration to it.
+    static final int DATABASE_VERSION = 3;
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // The oldest version the migrations start from.  Databases older than this predate keeping
+    // the data across upgrades and are rebuilt empty instead; the sync then restores the
+    // forecast from its response journal.
+    static final int MIN_MIGRATABLE_VERSION = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    /**
+     * One step of the schema, from the version before {@link #version} to it.  A step must keep
+     * the data it finds, and write its SQL out in full rather than build it from the contract,
+     * which follows the current schema.
+     */
+    abstract static class Migration {
+        final int version;
+
+        Migration(int version) {
+            this.version = version;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // In version order, one for each version after MIN_MIGRATABLE_VERSION
+    static final Migration[] MIGRATIONS = {
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Every forecast query joins the weather to a location; the unique
+                    // constraint leads with the date, so it can't look up a location's days
+                    db.execSQL("CREATE INDEX IF NOT EXISTS weather_location_date"
+                            + " ON weather (location_id, date)");
+                }
+            }
+    };
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -79,20 +121,38 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        final String SQL_CREATE_WEATHER_LOCATION_INDEX = "CREATE INDEX " +
+                INDEX_WEATHER_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_INDEX);
     }
 
+    /**
+     * Runs the migrations from {@code oldVersion} up to {@code newVersion} in order.  The open
+     * helper calls this inside the transaction that also sets the new version, so a failing step
+     * leaves the database as it was, to be upgraded again the next time it's opened.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < MIN_MIGRATABLE_VERSION) {
+            // This database is only a cache for online data, so when there is no way to
+            // keep it, discard the data and start over
+            Log.w(LOG_TAG, "Rebuilding the database from version " + oldVersion);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version > oldVersion && migration.version <= newVersion) {
+                Log.d(LOG_TAG, "Migrating the database to version " + migration.version);
+                migration.migrate(sqLiteDatabase);
+            }
+        }
     }
 }
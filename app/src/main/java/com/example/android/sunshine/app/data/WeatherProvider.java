@@ -17,13 +17,19 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 
+import java.util.ArrayList;
+
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
@@ -341,6 +347,70 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Like {@link #bulkInsert} into the weather table, but straight from the batch's columns:
+     * each day is bound to one compiled statement, without a {@link ContentValues} in between.
+     *
+     * @return the number of days written
+     */
+    public int insertForecast(ForecastBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int returnCount = 0;
+        db.beginTransaction();
+        SQLiteStatement statement = db.compileStatement("INSERT INTO " +
+                WeatherContract.WeatherEntry.TABLE_NAME + " (" +
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherContract.WeatherEntry.COLUMN_DEGREES +
+                ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                statement.bindLong(1, batch.getLocationId());
+                statement.bindLong(2, WeatherContract.normalizeDate(batch.getDate(i)));
+                statement.bindString(3, batch.getShortDesc(i));
+                statement.bindLong(4, batch.getWeatherId(i));
+                statement.bindDouble(5, batch.getMinTemp(i));
+                statement.bindDouble(6, batch.getMaxTemp(i));
+                statement.bindDouble(7, batch.getHumidity(i));
+                statement.bindDouble(8, batch.getPressure(i));
+                statement.bindDouble(9, batch.getWindSpeed(i));
+                statement.bindDouble(10, batch.getDegrees(i));
+                if (statement.executeInsert() != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            statement.close();
+            db.endTransaction();
+        }
+        getContext().getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        return returnCount;
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Like bulkInsert, the whole batch is written in one transaction, so it's applied either
+        // completely or not at all
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
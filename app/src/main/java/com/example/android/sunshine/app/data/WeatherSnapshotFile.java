@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The forecast for one location in a small binary file, written after each sync, so that the
+ * consumers living outside of the app's screens (the widgets, Muzei, the notification and the
+ * wearable) can show the weather without opening the database.
+ *
+ * The file is memory-mapped when opened and values are read straight from the mapping; nothing is
+ * copied or parsed up front.  Values are stored raw (temperatures in Celsius, as in the database)
+ * and formatted by each consumer, like everywhere else in the app.
+ *
+ * Layout, big-endian:
+ * <pre>
+ *   int    magic ("SUNW")
+ *   int    version
+ *   long   time written, in millis
+ *   short  length of the location setting, followed by its UTF-8 bytes
+ *   int    number of days
+ *   days, sorted by date, each {@link #DAY_SIZE} bytes:
+ *     long date, int weather id, float high, float low, float humidity, float pressure,
+ *     float wind speed, float wind direction
+ * </pre>
+ */
+public final class WeatherSnapshotFile {
+    private static final String LOG_TAG = WeatherSnapshotFile.class.getSimpleName();
+
+    private static final String DIRECTORY = "weather_snapshots";
+    private static final int MAGIC = 0x53554E57;
+    // Bump whenever the layout changes; files with another version are ignored and rewritten
+    private static final int VERSION = 1;
+
+    // Offsets within a day record
+    private static final int DATE = 0;
+    private static final int WEATHER_ID = 8;
+    private static final int HIGH = 12;
+    private static final int LOW = 16;
+    private static final int HUMIDITY = 20;
+    private static final int PRESSURE = 24;
+    private static final int WIND_SPEED = 28;
+    private static final int WIND_DIRECTION = 32;
+    static final int DAY_SIZE = 36;
+    // Magic, version, time written and the location's length
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 2;
+
+    private final ByteBuffer mBuffer;
+    private final String mLocationSetting;
+    private final long mWrittenAt;
+    private final int mDayCount;
+    private final int mDaysOffset;
+
+    private WeatherSnapshotFile(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        // Every length is checked against what is left, so a corrupt file is rejected here
+        // rather than failing somewhere in a consumer
+        if (buffer.remaining() < HEADER_SIZE
+                || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a weather snapshot of version " + VERSION);
+        }
+        mWrittenAt = buffer.getLong();
+        int locationLength = buffer.getShort() & 0xffff;
+        if (buffer.remaining() < locationLength + 4) {
+            throw new IOException("Truncated weather snapshot");
+        }
+        byte[] location = new byte[locationLength];
+        buffer.get(location);
+        mLocationSetting = new String(location, "UTF-8");
+        mDayCount = buffer.getInt();
+        mDaysOffset = buffer.position();
+        if (mDayCount < 0 || buffer.remaining() / DAY_SIZE < mDayCount) {
+            throw new IOException("Truncated weather snapshot");
+        }
+    }
+
+    /**
+     * Replaces the snapshot of the forecast's location.  The new file is written next to the old
+     * one and renamed over it, so readers always see either of them in full.  This does disk I/O
+     * and must not be called on the main thread.
+     */
+    public static void write(Context context, ForecastSnapshot forecast) {
+        File file = getFile(context, forecast.getLocationSetting());
+        if (null == file) {
+            return;
+        }
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream fos = null;
+        try {
+            byte[] location = forecast.getLocationSetting().getBytes("UTF-8");
+            ByteBuffer buffer = ByteBuffer.allocate(
+                    4 + 4 + 8 + 2 + location.length + 4 + forecast.size() * DAY_SIZE);
+            buffer.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(System.currentTimeMillis())
+                    .putShort((short) location.length)
+                    .put(location)
+                    .putInt(forecast.size());
+            for (ForecastSnapshot.Day day : forecast.getDays()) {
+                buffer.putLong(day.date)
+                        .putInt(day.weatherId)
+                        .putFloat((float) day.maxTemp)
+                        .putFloat((float) day.minTemp)
+                        .putFloat(day.humidity)
+                        .putFloat(day.pressure)
+                        .putFloat(day.windSpeed)
+                        .putFloat(day.degrees);
+            }
+
+            fos = atomicFile.startWrite();
+            fos.write(buffer.array());
+            atomicFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing weather snapshot", e);
+            atomicFile.failWrite(fos);
+        }
+    }
+
+    /**
+     * Maps the snapshot of the given location.
+     *
+     * @return the snapshot, or null if none has been written for the location (or it can't be
+     *         read, or is corrupt)
+     */
+    public static WeatherSnapshotFile open(Context context, String locationSetting) {
+        File file = getFile(context, locationSetting);
+        if (null == file) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new AtomicFile(file).openRead();
+            FileChannel channel = in.getChannel();
+            // The mapping stays valid after the channel is closed, and even after a newer
+            // snapshot has been renamed over the file
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new WeatherSnapshotFile(buffer);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading weather snapshot", e);
+            return null;
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // The mapping is all we needed
+                }
+            }
+        }
+    }
+
+    /**
+     * Like {@link #open}, but when there is no snapshot yet (for instance right after an update
+     * of the app, before the next sync) one is built from the database first.  This must not be
+     * called on the main thread.
+     *
+     * @return the snapshot, or null if there is no weather for the location at all
+     */
+    public static WeatherSnapshotFile openOrBuild(Context context, String locationSetting) {
+        WeatherSnapshotFile snapshot = open(context, locationSetting);
+        if (null == snapshot) {
+            ForecastSnapshot forecast =
+                    ForecastRepository.getInstance(context).getForecast(locationSetting);
+            if (forecast.isEmpty()) {
+                return null;
+            }
+            write(context, forecast);
+            snapshot = open(context, locationSetting);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Deletes the snapshot of the given location, as when the location is now stored under
+     * another setting.
+     */
+    public static void delete(Context context, String locationSetting) {
+        File file = getFile(context, locationSetting);
+        if (null != file) {
+            new AtomicFile(file).delete();
+        }
+    }
+
+    static File getFile(Context context, String locationSetting) {
+        try {
+            File directory = new File(context.getFilesDir(), DIRECTORY);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                Log.e(LOG_TAG, "Couldn't create " + directory);
+                return null;
+            }
+            // Location settings are free text, so make them safe to use as a file name
+            return new File(directory, URLEncoder.encode(locationSetting, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new RuntimeException(e);
+        }
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    /**
+     * @return when the snapshot was written, in millis
+     */
+    public long getWrittenAt() {
+        return mWrittenAt;
+    }
+
+    public int getDayCount() {
+        return mDayCount;
+    }
+
+    /**
+     * @param date a date, normalized as by {@link WeatherContract#normalizeDate(long)}
+     * @return the index of the first day on or after the given date, or {@link #getDayCount()}
+     *         if all of the days are before it
+     */
+    public int getFirstDayFrom(long date) {
+        int day = 0;
+        while (day < mDayCount && getDate(day) < date) {
+            day++;
+        }
+        return day;
+    }
+
+    /**
+     * @return the index of today, or {@link #getDayCount()} if the snapshot has no days left
+     */
+    public int getToday() {
+        return getFirstDayFrom(WeatherContract.normalizeDate(System.currentTimeMillis()));
+    }
+
+    public long getDate(int day) {
+        return mBuffer.getLong(offset(day) + DATE);
+    }
+
+    public int getWeatherId(int day) {
+        return mBuffer.getInt(offset(day) + WEATHER_ID);
+    }
+
+    public float getHigh(int day) {
+        return mBuffer.getFloat(offset(day) + HIGH);
+    }
+
+    public float getLow(int day) {
+        return mBuffer.getFloat(offset(day) + LOW);
+    }
+
+    public float getHumidity(int day) {
+        return mBuffer.getFloat(offset(day) + HUMIDITY);
+    }
+
+    public float getPressure(int day) {
+        return mBuffer.getFloat(offset(day) + PRESSURE);
+    }
+
+    public float getWindSpeed(int day) {
+        return mBuffer.getFloat(offset(day) + WIND_SPEED);
+    }
+
+    public float getWindDirection(int day) {
+        return mBuffer.getFloat(offset(day) + WIND_DIRECTION);
+    }
+
+    private int offset(int day) {
+        if (day < 0 || day >= mDayCount) {
+            throw new IndexOutOfBoundsException("Day " + day + " of " + mDayCount);
+        }
+        return mDaysOffset + day * DAY_SIZE;
+    }
+}
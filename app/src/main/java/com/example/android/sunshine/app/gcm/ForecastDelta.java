@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.gcm;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * A change to the forecast of one location, pushed by the server in the {@link #EXTRA_FORECAST}
+ * field of a GCM data message:
+ * <pre>
+ *   {"loc": "94043",
+ *    "days": [{"date": 1445040000000, "max": 21.5, "id": 500, "desc": "Light Rain"}, ...]}
+ * </pre>
+ * Days already in the database only need the fields that changed; days we don't have yet need
+ * all of them.  The fields are:
+ * {@code id, desc, max, min, hum, pres, wind, deg}.
+ */
+class ForecastDelta {
+    private static final String LOG_TAG = ForecastDelta.class.getSimpleName();
+
+    static final String EXTRA_FORECAST = "forecast";
+
+    /** The delta was written to the database. */
+    static final int RESULT_APPLIED = 0;
+    /** The delta is for a location we don't show, so there's nothing to do. */
+    static final int RESULT_IGNORED = 1;
+    /** The delta can't be applied on its own, so the forecast has to be synced instead. */
+    static final int RESULT_INCOMPLETE = 2;
+
+    private static final String KEY_LOCATION = "loc";
+    private static final String KEY_DAYS = "days";
+    private static final String KEY_DATE = "date";
+
+    // The server sends at most what a sync fetches
+    private static final int MAX_DAYS = 14;
+
+    private static final String[] KEYS = {
+            "id", "desc", "max", "min", "hum", "pres", "wind", "deg"
+    };
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private final String mLocationSetting;
+    // For each day its normalized date and the columns that changed
+    private final ArrayList<ContentValues> mDays;
+
+    private ForecastDelta(String locationSetting, ArrayList<ContentValues> days) {
+        mLocationSetting = locationSetting;
+        mDays = days;
+    }
+
+    /**
+     * @throws JSONException if the message is malformed
+     */
+    static ForecastDelta parse(String json) throws JSONException {
+        JSONObject message = new JSONObject(json);
+        String locationSetting = message.getString(KEY_LOCATION);
+        JSONArray days = message.getJSONArray(KEY_DAYS);
+        if (days.length() > MAX_DAYS) {
+            throw new JSONException("Too many days: " + days.length());
+        }
+
+        ArrayList<ContentValues> list = new ArrayList<ContentValues>(days.length());
+        for (int i = 0; i < days.length(); i++) {
+            JSONObject day = days.getJSONObject(i);
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(day.getLong(KEY_DATE)));
+            for (int j = 0; j < KEYS.length; j++) {
+                if (!day.has(KEYS[j])) {
+                    continue;
+                }
+                if (COLUMNS[j].equals(WeatherEntry.COLUMN_WEATHER_ID)) {
+                    values.put(COLUMNS[j], day.getInt(KEYS[j]));
+                } else if (COLUMNS[j].equals(WeatherEntry.COLUMN_SHORT_DESC)) {
+                    values.put(COLUMNS[j], day.getString(KEYS[j]));
+                } else {
+                    values.put(COLUMNS[j], day.getDouble(KEYS[j]));
+                }
+            }
+            list.add(values);
+        }
+        return new ForecastDelta(locationSetting, list);
+    }
+
+    String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    /**
+     * Writes the delta to the provider in a single batch.  Nothing is written unless all of it
+     * can be.  This goes to the database, so it must not be called on the main thread.
+     *
+     * @return {@link #RESULT_APPLIED}, {@link #RESULT_IGNORED} or {@link #RESULT_INCOMPLETE}
+     */
+    int apply(Context context) {
+        if (!mLocationSetting.equals(Utility.getPreferredLocation(context))) {
+            return RESULT_IGNORED;
+        }
+        ContentResolver resolver = context.getContentResolver();
+        long locationId = queryLocationId(resolver);
+        if (locationId == -1) {
+            // Without a sync we don't know the city's name or coordinates
+            return RESULT_INCOMPLETE;
+        }
+        HashSet<Long> dates = queryDates(resolver, locationId);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues day : mDays) {
+            long date = day.getAsLong(WeatherEntry.COLUMN_DATE);
+            if (dates.contains(date)) {
+                ContentValues changed = new ContentValues(day);
+                changed.remove(WeatherEntry.COLUMN_DATE);
+                if (changed.size() == 0) {
+                    continue;
+                }
+                operations.add(ContentProviderOperation.newUpdate(WeatherEntry.CONTENT_URI)
+                        .withSelection(WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                                        + WeatherEntry.COLUMN_DATE + " = ?",
+                                new String[]{Long.toString(locationId), Long.toString(date)})
+                        .withValues(changed)
+                        // Fails the batch if the day was deleted in the meantime
+                        .withExpectedCount(1)
+                        .build());
+            } else if (day.size() == COLUMNS.length + 1) {
+                ContentValues values = new ContentValues(day);
+                values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+                operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                        .withValues(values)
+                        .build());
+            } else {
+                return RESULT_INCOMPLETE;
+            }
+        }
+        if (operations.isEmpty()) {
+            return RESULT_APPLIED;
+        }
+
+        try {
+            resolver.applyBatch(context.getString(R.string.content_authority), operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error applying forecast for " + mLocationSetting, e);
+            return RESULT_INCOMPLETE;
+        }
+        return RESULT_APPLIED;
+    }
+
+    private long queryLocationId(ContentResolver resolver) {
+        Cursor cursor = resolver.query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{mLocationSetting},
+                null);
+        if (null == cursor) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static HashSet<Long> queryDates(ContentResolver resolver, long locationId) {
+        HashSet<Long> dates = new HashSet<Long>();
+        Cursor cursor = resolver.query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_DATE},
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)},
+                null);
+        if (null == cursor) {
+            return dates;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                dates.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return dates;
+    }
+}
@@ -29,6 +29,9 @@ import android.widget.Toast;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.UpdateDispatcher;
 import com.google.android.gms.gcm.GcmListenerService;
 
 import org.json.JSONException;
@@ -62,23 +65,55 @@ public class MyGcmListenerService extends GcmListenerService {
             }
             // Not a bad idea to check that the message is coming from your server.
             if ((senderId).equals(from)) {
-                // Process message and then post a notification of the received message.
-                try {
-                    JSONObject jsonObject = new JSONObject(data.getString(EXTRA_DATA));
-                    String weather = jsonObject.getString(EXTRA_WEATHER);
-                    String location = jsonObject.getString(EXTRA_LOCATION);
-                    String alert =
-                            String.format(getString(R.string.gcm_weather_alert), weather, location);
-                    sendNotification(alert);
-                } catch (JSONException e) {
-                    // JSON parsing failed, so we just let this message go, since GCM is not one
-                    // of our critical features.
+                if (data.containsKey(ForecastDelta.EXTRA_FORECAST)) {
+                    applyForecast(data.getString(ForecastDelta.EXTRA_FORECAST));
+                } else {
+                    // Process message and then post a notification of the received message.
+                    try {
+                        JSONObject jsonObject = new JSONObject(data.getString(EXTRA_DATA));
+                        String weather = jsonObject.getString(EXTRA_WEATHER);
+                        String location = jsonObject.getString(EXTRA_LOCATION);
+                        String alert = String.format(getString(R.string.gcm_weather_alert),
+                                weather, location);
+                        sendNotification(alert);
+                    } catch (JSONException e) {
+                        // JSON parsing failed, so we just let this message go, since GCM is not
+                        // one of our critical features.
+                    }
                 }
             }
             Log.i(TAG, "Received: " + data.toString());
         }
     }
 
+    /**
+     * Writes a pushed forecast delta to the database, falling back to syncing the location when
+     * the delta can't be applied on its own.
+     */
+    private void applyForecast(String json) {
+        int result;
+        String locationSetting = Utility.getPreferredLocation(this);
+        try {
+            result = ForecastDelta.parse(json).apply(this);
+        } catch (JSONException e) {
+            Log.e(TAG, "Malformed forecast delta", e);
+            result = ForecastDelta.RESULT_INCOMPLETE;
+        }
+        switch (result) {
+            case ForecastDelta.RESULT_APPLIED:
+                SunshineSyncAdapter.onForecastChanged(this, locationSetting);
+                // The service may be stopped as soon as the message has been handled
+                UpdateDispatcher.getInstance(this).flush();
+                break;
+            case ForecastDelta.RESULT_INCOMPLETE:
+                // The sync only ever fetches the preferred location
+                SunshineSyncAdapter.syncImmediately(this);
+                break;
+            default:
+                Log.d(TAG, "Ignoring forecast delta for another location");
+        }
+    }
+
     /**
      *  Put the message into a notification and post it.
      *  This is just one simple example of what you might choose to do with a GCM message.
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.muzei;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.R;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Local copies of the wallpapers published to Muzei, so that Muzei reads them from us through
+ * {@link MuzeiArtProvider} instead of downloading them again from Wikimedia every time it loads
+ * the artwork.  There is only one image per condition class, so the cache stays small.
+ */
+class MuzeiArtCache {
+    private static final String LOG_TAG = MuzeiArtCache.class.getSimpleName();
+
+    static final String DIRECTORY = "muzei_art";
+
+    // The wallpapers are a few hundred KB; past this the remote URL is published instead
+    private static final long DOWNLOAD_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Downloads the image, unless it is cached already.  This blocks on the network, so it must
+     * not be called on the main thread.
+     *
+     * @return a content URI Muzei can read the image from, or null if it couldn't be downloaded
+     *         in time
+     */
+    static Uri get(Context context, String imageUrl) {
+        File directory = new File(context.getFilesDir(), DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Couldn't create " + directory);
+            return null;
+        }
+        String name = getFileName(imageUrl);
+        File file = new File(directory, name);
+        if (!file.exists() && !download(context, imageUrl, file)) {
+            return null;
+        }
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(context.getString(R.string.muzei_art_authority))
+                .appendPath(name)
+                .build();
+    }
+
+    /**
+     * @return whether the name is one {@link #get} may have given out
+     */
+    static boolean isValidFileName(String name) {
+        return null != name && name.matches("[0-9a-f]{8}\\.jpg");
+    }
+
+    private static String getFileName(String imageUrl) {
+        return String.format("%08x.jpg", imageUrl.hashCode());
+    }
+
+    private static boolean download(Context context, String imageUrl, File file) {
+        // Glide already knows how to fetch and cache the original; keep our own copy of it, since
+        // Glide's cache may be trimmed while Muzei still shows the image
+        FutureTarget<File> target = Glide.with(context)
+                .load(imageUrl)
+                .downloadOnly(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL);
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream fos = null;
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(target.get(DOWNLOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            fos = atomicFile.startWrite();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                fos.write(buffer, 0, read);
+            }
+            atomicFile.finishWrite(fos);
+            return true;
+        } catch (InterruptedException | ExecutionException | TimeoutException | IOException e) {
+            Log.e(LOG_TAG, "Error caching " + imageUrl, e);
+            atomicFile.failWrite(fos);
+            return false;
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing to do, it was only read
+                }
+            }
+            Glide.clear(target);
+        }
+    }
+}
@@ -16,13 +16,15 @@
 package com.example.android.sunshine.app.muzei;
 
 import android.content.Intent;
-import android.database.Cursor;
+import android.content.SharedPreferences;
 import android.net.Uri;
+import android.util.Log;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherSnapshotFile;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.UpdateDispatcher;
 import com.google.android.apps.muzei.api.Artwork;
 import com.google.android.apps.muzei.api.MuzeiArtSource;
 
@@ -30,13 +32,14 @@ import com.google.android.apps.muzei.api.MuzeiArtSource;
  * Muzei source that changes your background based on the current weather conditions
  */
 public class WeatherMuzeiSource extends MuzeiArtSource {
-    private static final String[] FORECAST_COLUMNS = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
+    private static final String LOG_TAG = WeatherMuzeiSource.class.getSimpleName();
+
+    private static final String PREFS = "weather_muzei_source";
+    private static final String KEY_PUBLISHED = "published";
+    private static final String KEY_SKIPPED = "skipped";
+    // Where the published artwork is served from, as the last part of its token
+    private static final String TOKEN_CACHED = "cached";
+    private static final String TOKEN_REMOTE = "remote";
 
     public WeatherMuzeiSource() {
         super("WeatherMuzeiSource");
@@ -52,28 +55,73 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
         }
     }
 
+    @Override
+    protected void onEnabled() {
+        UpdateDispatcher.setMuzeiEnabled(this, true);
+    }
+
+    @Override
+    protected void onDisabled() {
+        UpdateDispatcher.setMuzeiEnabled(this, false);
+    }
+
     @Override
     protected void onUpdate(int reason) {
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
-
+        WeatherSnapshotFile snapshot = WeatherSnapshotFile.openOrBuild(this, location);
+        if (null == snapshot) {
+            return;
+        }
+        int today = snapshot.getToday();
+        if (today < snapshot.getDayCount()) {
+            int weatherId = snapshot.getWeatherId(today);
             String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
             // Only publish a new wallpaper if we have a valid image
-            if (imageUrl != null) {
-                publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
-                        .title(desc)
-                        .byline(location)
-                        .viewIntent(new Intent(this, MainActivity.class))
-                        .build());
+            if (imageUrl == null) {
+                return;
+            }
+
+            // Conditions sharing an image look the same, so unless the user asked for the
+            // artwork there's nothing to publish until the image or the location changes, or
+            // until artwork published from the remote URL can be served from our own copy
+            String token = imageUrl + "|" + location + "|";
+            Artwork current = getCurrentArtwork();
+            String currentToken = reason == UPDATE_REASON_OTHER && null != current
+                    ? current.getToken() : null;
+            if ((token + TOKEN_CACHED).equals(currentToken)) {
+                count(KEY_SKIPPED);
+                return;
+            }
+
+            // Serve our own copy, so Muzei doesn't download the image every time; if it can't be
+            // downloaded now Muzei may still manage later
+            Uri imageUri = MuzeiArtCache.get(this, imageUrl);
+            token += null != imageUri ? TOKEN_CACHED : TOKEN_REMOTE;
+            if (token.equals(currentToken)) {
+                // Still no copy of our own to upgrade to
+                count(KEY_SKIPPED);
+                return;
             }
+            String desc = Utility.getStringForWeatherCondition(this, weatherId);
+            publishArtwork(new Artwork.Builder()
+                    .imageUri(null != imageUri ? imageUri : Uri.parse(imageUrl))
+                    .title(desc)
+                    .byline(location)
+                    .token(token)
+                    .viewIntent(new Intent(this, MainActivity.class))
+                    .build());
+            count(KEY_PUBLISHED);
+        }
+    }
+
+    private void count(String key) {
+        SharedPreferences prefs = getSharedPreferences(PREFS, MODE_PRIVATE);
+        int count = prefs.getInt(key, 0) + 1;
+        prefs.edit().putInt(key, count).apply();
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, "Artwork " + key + " " + count + " times (published "
+                    + prefs.getInt(KEY_PUBLISHED, 0) + ", skipped "
+                    + prefs.getInt(KEY_SKIPPED, 0) + ")");
         }
-        cursor.close();
     }
 }
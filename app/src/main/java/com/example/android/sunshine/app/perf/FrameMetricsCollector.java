@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records how long frames take while interesting things happen on screen, such as scrolling the
+ * forecast list or opening the details of a day.  Callers bracket those moments with
+ * {@link #begin(String)} and {@link #end(String)}; every frame drawn in between is added to the
+ * {@link FrameStats} histogram of that screen.
+ *
+ * Frame durations are taken from the vsync timestamps handed to a {@link Choreographer} frame
+ * callback: when the main thread is too busy to draw a frame in time, the next callback comes
+ * one or more vsyncs late.  This needs Jelly Bean, and only runs in debug builds.
+ *
+ * All methods must be called on the main thread.
+ */
+public class FrameMetricsCollector {
+    private static final String LOG_TAG = FrameMetricsCollector.class.getSimpleName();
+
+    public static final String SCREEN_FORECAST_SCROLL = "forecast_list_scroll";
+    public static final String SCREEN_DETAIL_OPEN = "detail_open";
+
+    public static final boolean ENABLED =
+            BuildConfig.DEBUG && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+
+    private static FrameMetricsCollector sInstance;
+
+    // Per screen histograms, in the order the screens were first seen
+    private final LinkedHashMap<String, FrameStats> mStats = new LinkedHashMap<String, FrameStats>();
+    // The screens being recorded, with the uptime at which to stop recording them (0 for never)
+    private final HashMap<String, Long> mActiveScreens = new HashMap<String, Long>();
+    private FrameCallback mFrameCallback;
+
+    public static FrameMetricsCollector getInstance() {
+        if (null == sInstance) {
+            sInstance = new FrameMetricsCollector();
+        }
+        return sInstance;
+    }
+
+    private FrameMetricsCollector() {
+    }
+
+    /**
+     * Starts recording frames for the screen, until {@link #end(String)} is called.
+     */
+    public void begin(String screen) {
+        begin(screen, 0);
+    }
+
+    /**
+     * Records frames for the screen during the given time, or until {@link #end(String)} is
+     * called.  This suits moments that have no clear end, like a transition.
+     */
+    public void begin(String screen, long durationMillis) {
+        if (!ENABLED) {
+            return;
+        }
+        long deadline;
+        if (durationMillis > 0) {
+            deadline = SystemClock.uptimeMillis() + durationMillis;
+        } else {
+            deadline = 0;
+        }
+        mActiveScreens.put(screen, deadline);
+        if (null == mFrameCallback) {
+            mFrameCallback = new FrameCallback();
+            mFrameCallback.start();
+        }
+    }
+
+    public void end(String screen) {
+        if (!ENABLED) {
+            return;
+        }
+        mActiveScreens.remove(screen);
+        // The frame callback stops on the next frame once nothing is being recorded
+    }
+
+    /**
+     * @return a copy of the histograms recorded so far, one per screen
+     */
+    public List<FrameStats> getStats() {
+        ArrayList<FrameStats> stats = new ArrayList<FrameStats>(mStats.size());
+        for (FrameStats screenStats : mStats.values()) {
+            stats.add(new FrameStats(screenStats));
+        }
+        return stats;
+    }
+
+    public void reset() {
+        mStats.clear();
+    }
+
+    /**
+     * Writes the histograms to a CSV file, with one row per screen, so that runs can be compared
+     * with a diff or a spreadsheet.  The file goes to the app's external files directory when
+     * there is one, so it can be pulled with adb.
+     *
+     * @return the file written, or null if it couldn't be written
+     */
+    public File dump(Context context) {
+        File dir = context.getExternalFilesDir(null);
+        if (null == dir) {
+            dir = context.getFilesDir();
+        }
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File file = new File(dir, "frame_stats-" + timestamp + ".csv");
+
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(new FileWriter(file));
+            StringBuilder header = new StringBuilder("screen,frames,janky_frames,avg_ms,max_ms");
+            for (int i = 0; i <= FrameStats.BUCKET_BOUNDS_MILLIS.length; i++) {
+                header.append(',').append(FrameStats.getBucketLabel(i));
+            }
+            writer.println(header);
+            for (FrameStats stats : mStats.values()) {
+                StringBuilder row = new StringBuilder(stats.getScreen())
+                        .append(',').append(stats.getFrameCount())
+                        .append(',').append(stats.getJankyFrameCount())
+                        .append(',')
+                        .append(String.format(Locale.US, "%.1f", stats.getAverageMillis()))
+                        .append(',')
+                        .append(String.format(Locale.US, "%.1f", stats.getMaxMillis()));
+                for (int i = 0; i < stats.getBucketCount(); i++) {
+                    row.append(',').append(stats.getBucket(i));
+                }
+                writer.println(row);
+            }
+            if (writer.checkError()) {
+                throw new IOException("Error writing " + file);
+            }
+            return file;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Couldn't dump frame stats", e);
+            return null;
+        } finally {
+            if (null != writer) {
+                writer.close();
+            }
+        }
+    }
+
+    private void onFrame(long frameDurationNanos) {
+        long now = SystemClock.uptimeMillis();
+        // Copy the keys, since screens whose time is up are removed while iterating
+        for (String screen : new ArrayList<String>(mActiveScreens.keySet())) {
+            FrameStats stats = mStats.get(screen);
+            if (null == stats) {
+                stats = new FrameStats(screen);
+                mStats.put(screen, stats);
+            }
+            stats.addFrame(frameDurationNanos);
+
+            long deadline = mActiveScreens.get(screen);
+            if (deadline != 0 && now >= deadline) {
+                mActiveScreens.remove(screen);
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class FrameCallback implements Choreographer.FrameCallback {
+        private long mLastFrameTimeNanos;
+
+        void start() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            // The first callback only gives us a starting point
+            if (mLastFrameTimeNanos != 0) {
+                onFrame(frameTimeNanos - mLastFrameTimeNanos);
+            }
+            mLastFrameTimeNanos = frameTimeNanos;
+
+            if (mActiveScreens.isEmpty()) {
+                mFrameCallback = null;
+            } else {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+/**
+ * Histogram of the frame durations recorded for one screen.
+ */
+public class FrameStats {
+
+    // Upper bounds of the histogram buckets, in milliseconds.  A frame belongs to the first
+    // bucket whose bound it is under; the last bucket holds everything slower.
+    static final int[] BUCKET_BOUNDS_MILLIS = {8, 12, 17, 25, 34, 50, 100};
+
+    private static final long FRAME_INTERVAL_NANOS = 1000000000L / 60;
+    // Frame times come from vsync timestamps, so an on-time frame measures one interval give or
+    // take some jitter; a frame slower than one and a half intervals missed at least one vsync
+    private static final long JANK_THRESHOLD_NANOS = FRAME_INTERVAL_NANOS * 3 / 2;
+
+    private final String mScreen;
+    private final int[] mBuckets = new int[BUCKET_BOUNDS_MILLIS.length + 1];
+    private int mFrameCount;
+    private int mJankyFrameCount;
+    private long mTotalNanos;
+    private long mMaxNanos;
+
+    FrameStats(String screen) {
+        mScreen = screen;
+    }
+
+    FrameStats(FrameStats other) {
+        mScreen = other.mScreen;
+        System.arraycopy(other.mBuckets, 0, mBuckets, 0, mBuckets.length);
+        mFrameCount = other.mFrameCount;
+        mJankyFrameCount = other.mJankyFrameCount;
+        mTotalNanos = other.mTotalNanos;
+        mMaxNanos = other.mMaxNanos;
+    }
+
+    void addFrame(long durationNanos) {
+        long millis = durationNanos / 1000000;
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MILLIS.length && millis >= BUCKET_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        mBuckets[bucket]++;
+        mFrameCount++;
+        if (durationNanos > JANK_THRESHOLD_NANOS) {
+            mJankyFrameCount++;
+        }
+        mTotalNanos += durationNanos;
+        mMaxNanos = Math.max(mMaxNanos, durationNanos);
+    }
+
+    public String getScreen() {
+        return mScreen;
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getJankyFrameCount() {
+        return mJankyFrameCount;
+    }
+
+    public float getAverageMillis() {
+        return mFrameCount == 0 ? 0 : mTotalNanos / (float) mFrameCount / 1000000;
+    }
+
+    public float getMaxMillis() {
+        return mMaxNanos / 1000000f;
+    }
+
+    public int getBucketCount() {
+        return mBuckets.length;
+    }
+
+    public int getBucket(int bucket) {
+        return mBuckets[bucket];
+    }
+
+    /**
+     * @return a label for the bucket, such as "<17ms" or ">=100ms"
+     */
+    public static String getBucketLabel(int bucket) {
+        if (bucket < BUCKET_BOUNDS_MILLIS.length) {
+            return "<" + BUCKET_BOUNDS_MILLIS[bucket] + "ms";
+        }
+        return ">=" + BUCKET_BOUNDS_MILLIS[BUCKET_BOUNDS_MILLIS.length - 1] + "ms";
+    }
+}
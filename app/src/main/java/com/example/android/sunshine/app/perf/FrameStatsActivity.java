@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.Toolbar;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.example.android.sunshine.app.R;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Debug screen showing the frame time histograms recorded by the
+ * {@link FrameMetricsCollector}, with actions to dump them to a file or start over.
+ */
+public class FrameStatsActivity extends AppCompatActivity {
+
+    private TextView mStatsView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_frame_stats);
+        Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        mStatsView = (TextView) findViewById(R.id.frame_stats_textview);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        updateStats();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.frame_stats, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+        if (id == R.id.action_dump_frame_stats) {
+            File file = FrameMetricsCollector.getInstance().dump(this);
+            String message = null == file
+                    ? getString(R.string.frame_stats_dump_failed)
+                    : getString(R.string.frame_stats_dumped, file.getAbsolutePath());
+            Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+            return true;
+        } else if (id == R.id.action_reset_frame_stats) {
+            FrameMetricsCollector.getInstance().reset();
+            updateStats();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void updateStats() {
+        List<FrameStats> allStats = FrameMetricsCollector.getInstance().getStats();
+        if (allStats.isEmpty()) {
+            mStatsView.setText(R.string.frame_stats_empty);
+            return;
+        }
+
+        StringBuilder text = new StringBuilder();
+        for (FrameStats stats : allStats) {
+            text.append(stats.getScreen()).append('\n');
+            text.append(getString(R.string.frame_stats_summary, stats.getFrameCount(),
+                    stats.getJankyFrameCount(), stats.getAverageMillis(), stats.getMaxMillis()))
+                    .append('\n');
+            int frames = Math.max(1, stats.getFrameCount());
+            for (int i = 0; i < stats.getBucketCount(); i++) {
+                int count = stats.getBucket(i);
+                text.append(String.format("%8s %6d ", FrameStats.getBucketLabel(i), count));
+                // A bar of up to 20 characters shows the share of frames in the bucket
+                for (int bar = count * 20 / frames; bar > 0; bar--) {
+                    text.append('#');
+                }
+                text.append('\n');
+            }
+            text.append('\n');
+        }
+        mStatsView.setText(text);
+    }
+}
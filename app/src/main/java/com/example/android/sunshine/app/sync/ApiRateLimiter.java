@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.R;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Limits the requests made to the weather server with the app's API key, which every install
+ * shares, so that immediate syncs, periodic syncs and syncs of other locations landing together
+ * don't get the key throttled.
+ *
+ * A token bucket: a request takes a token, and tokens come back one per refill interval up to the
+ * bucket's capacity.  The last tokens are kept for the preferred location.  When the server
+ * answers 429 anyway, no requests are made until the time it asked for has passed.
+ *
+ * The bucket is kept in shared preferences, keyed by the API key, so it survives the process
+ * being killed between syncs and starts over full when the key changes.
+ */
+class ApiRateLimiter {
+    private static final String LOG_TAG = ApiRateLimiter.class.getSimpleName();
+
+    static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final String PREFS = "api_rate_limiter";
+    private static final String KEY_TOKENS = "tokens";
+    private static final String KEY_REFILLED_AT = "refilled_at";
+    private static final String KEY_BLOCKED_UNTIL = "blocked_until";
+
+    // Tokens only the preferred location may take
+    static final int RESERVED_FOR_PREFERRED = 2;
+    // Waits used when a 429 says nothing usable about how long to wait, and the longest one
+    // taken from it
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000L * 60 * 10;
+    private static final long MAX_RETRY_AFTER_MILLIS = 1000L * 60 * 60 * 24;
+
+    private static ApiRateLimiter sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final String mKeyPrefix;
+    private final int mCapacity;
+    private final long mRefillMillis;
+
+    // Guarded by this
+    private float mTokens;
+    private long mRefilledAt;
+    private long mBlockedUntil;
+
+    static synchronized ApiRateLimiter getInstance(Context context) {
+        if (null == sInstance) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new ApiRateLimiter(
+                    appContext.getSharedPreferences(PREFS, Context.MODE_PRIVATE),
+                    BuildConfig.OPEN_WEATHER_MAP_API_KEY,
+                    appContext.getResources().getInteger(R.integer.api_rate_limit_capacity),
+                    1000L * 60 * appContext.getResources().getInteger(
+                            R.integer.api_rate_limit_refill_minutes));
+        }
+        return sInstance;
+    }
+
+    ApiRateLimiter(SharedPreferences prefs, String apiKey, int capacity, long refillMillis) {
+        mPrefs = prefs;
+        // Don't keep the key itself around in yet another file
+        mKeyPrefix = Integer.toHexString(apiKey.hashCode()) + ".";
+        mCapacity = capacity;
+        mRefillMillis = refillMillis;
+        mTokens = prefs.getFloat(mKeyPrefix + KEY_TOKENS, capacity);
+        mRefilledAt = prefs.getLong(mKeyPrefix + KEY_REFILLED_AT, 0);
+        mBlockedUntil = prefs.getLong(mKeyPrefix + KEY_BLOCKED_UNTIL, 0);
+    }
+
+    /**
+     * Takes a token for a request, if there is one to take.
+     *
+     * @param preferred whether the request is for the preferred location, which may take the
+     *                  reserved tokens
+     * @return whether the request may be made
+     */
+    public boolean tryAcquire(boolean preferred) {
+        return tryAcquire(preferred, System.currentTimeMillis());
+    }
+
+    synchronized boolean tryAcquire(boolean preferred, long now) {
+        refill(now);
+        if (now < mBlockedUntil) {
+            return false;
+        }
+        float needed = preferred ? 1 : 1 + RESERVED_FOR_PREFERRED;
+        if (mTokens < needed) {
+            return false;
+        }
+        mTokens -= 1;
+        save();
+        return true;
+    }
+
+    /**
+     * @return the number of requests that may be made right now for the preferred location
+     */
+    public int getRemaining() {
+        return getRemaining(System.currentTimeMillis());
+    }
+
+    synchronized int getRemaining(long now) {
+        refill(now);
+        return now < mBlockedUntil ? 0 : (int) mTokens;
+    }
+
+    /**
+     * @return when the next request for the preferred location may be made, in millis; now or
+     *         earlier when one may be made right away
+     */
+    public long getNextAllowedAt() {
+        return getNextAllowedAt(System.currentTimeMillis());
+    }
+
+    synchronized long getNextAllowedAt(long now) {
+        refill(now);
+        long refilled = mTokens >= 1 ? now : mRefilledAt + (long) ((1 - mTokens) * mRefillMillis);
+        return Math.max(refilled, mBlockedUntil);
+    }
+
+    /**
+     * Records a 429 from the server: the bucket is emptied, and no request is allowed until the
+     * wait the server asked for has passed.
+     *
+     * @param retryAfter the response's Retry-After header, or null
+     */
+    public void onTooManyRequests(String retryAfter) {
+        onTooManyRequests(retryAfter, System.currentTimeMillis());
+    }
+
+    synchronized void onTooManyRequests(String retryAfter, long now) {
+        long wait = Math.min(parseRetryAfter(retryAfter, now), MAX_RETRY_AFTER_MILLIS);
+        Log.w(LOG_TAG, "Throttled by the server, waiting " + wait / 1000 + "s");
+        mTokens = 0;
+        mRefilledAt = now;
+        mBlockedUntil = Math.max(mBlockedUntil, now + wait);
+        save();
+    }
+
+    /**
+     * @return the wait asked for by a Retry-After header, either in seconds or as an HTTP date,
+     *         in millis
+     */
+    static long parseRetryAfter(String retryAfter, long now) {
+        if (null == retryAfter) {
+            return DEFAULT_RETRY_AFTER_MILLIS;
+        }
+        retryAfter = retryAfter.trim();
+        try {
+            // Capped before converting, as a huge value would overflow into no wait at all
+            long seconds = Math.min(Long.parseLong(retryAfter), MAX_RETRY_AFTER_MILLIS / 1000);
+            return Math.max(0, seconds * 1000);
+        } catch (NumberFormatException e) {
+            // Not in seconds, so it should be a date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return Math.max(0, format.parse(retryAfter).getTime() - now);
+        } catch (ParseException e) {
+            Log.w(LOG_TAG, "Unknown Retry-After: " + retryAfter);
+            return DEFAULT_RETRY_AFTER_MILLIS;
+        }
+    }
+
+    private void refill(long now) {
+        if (mTokens >= mCapacity || now < mRefilledAt) {
+            // Nothing to refill (or the clock was set back); start counting from here
+            mRefilledAt = now;
+            return;
+        }
+        long intervals = (now - mRefilledAt) / mRefillMillis;
+        if (intervals > 0) {
+            mTokens = Math.min(mCapacity, mTokens + intervals);
+            mRefilledAt = mTokens >= mCapacity ? now : mRefilledAt + intervals * mRefillMillis;
+        }
+    }
+
+    private void save() {
+        mPrefs.edit()
+                .putFloat(mKeyPrefix + KEY_TOKENS, mTokens)
+                .putLong(mKeyPrefix + KEY_REFILLED_AT, mRefilledAt)
+                .putLong(mKeyPrefix + KEY_BLOCKED_UNTIL, mBlockedUntil)
+                .apply();
+    }
+}
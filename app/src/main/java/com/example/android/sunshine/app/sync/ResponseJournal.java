@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The raw forecast responses from the server, compressed, in one append-only file per location.
+ * The last response stored for a location lets the sync put its forecast back after the database
+ * was upgraded or wiped without fetching it again, and replaying the journal drives the parse and
+ * ingest benchmark with real responses.
+ *
+ * Each file is kept under a size limit: when an append would go over it, the oldest responses are
+ * dropped so that the file is down to half the limit again.
+ *
+ * Record layout, big-endian:
+ * <pre>
+ *   int    magic ("SUNJ")
+ *   long   time the response was received, in millis
+ *   int    length of the compressed response
+ *   int    CRC-32 of the compressed response
+ *   the response as deflated UTF-8
+ * </pre>
+ *
+ * An append cut short (the process dying mid-write) leaves a partial record at the end of the
+ * file; it is skipped when reading and written over by the next append.
+ */
+final class ResponseJournal {
+    private static final String LOG_TAG = ResponseJournal.class.getSimpleName();
+
+    private static final String DIRECTORY = "response_journal";
+    // About a week of three-hourly syncs of a 14 day forecast
+    private static final int MAX_BYTES = 128 * 1024;
+    private static final int MAGIC = 0x53554E4A;
+    private static final int HEADER_SIZE = 4 + 8 + 4 + 4;
+
+    /**
+     * A response as it was received.
+     */
+    static final class Entry {
+        final long receivedAt;
+        private final byte[] mCompressed;
+
+        private Entry(long receivedAt, byte[] compressed) {
+            this.receivedAt = receivedAt;
+            mCompressed = compressed;
+        }
+
+        /**
+         * Decompresses the response.
+         */
+        String getJson() throws IOException {
+            InflaterInputStream in =
+                    new InflaterInputStream(new ByteArrayInputStream(mCompressed));
+            ByteArrayOutputStream out = new ByteArrayOutputStream(mCompressed.length * 4);
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            in.close();
+            return out.toString("UTF-8");
+        }
+    }
+
+    private final File mDirectory;
+    private final int mMaxBytes;
+
+    ResponseJournal(Context context) {
+        this(new File(context.getFilesDir(), DIRECTORY), MAX_BYTES);
+    }
+
+    // For tests, to keep clear of the app's own journal
+    ResponseJournal(File directory, int maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Adds a response to the end of the location's journal.  This does disk I/O and must not be
+     * called on the main thread.
+     */
+    synchronized void append(String locationSetting, long receivedAt, String json) {
+        File file = getFile(locationSetting);
+        if (null == file) {
+            return;
+        }
+        RandomAccessFile raf = null;
+        try {
+            byte[] record = encode(receivedAt, json);
+            if (record.length > mMaxBytes / 2) {
+                Log.w(LOG_TAG, "Not journaling a response of " + record.length + " bytes");
+                return;
+            }
+            raf = new RandomAccessFile(file, "rw");
+            long end = findEnd(raf);
+            if (end + record.length > mMaxBytes) {
+                raf.close();
+                raf = null;
+                compact(file, end, mMaxBytes / 2 - record.length);
+                raf = new RandomAccessFile(file, "rw");
+                end = raf.length();
+            }
+            raf.seek(end);
+            raf.write(record);
+            raf.setLength(end + record.length);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error journaling the response for " + locationSetting, e);
+        } finally {
+            if (null != raf) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing the journal", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the location's responses, oldest first.  Records that fail their checksum are
+     *         left out.
+     */
+    synchronized List<Entry> read(String locationSetting) {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        File file = getFile(locationSetting);
+        if (null == file) {
+            return entries;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            readEntries(raf, raf.length(), entries);
+        } catch (FileNotFoundException e) {
+            // Nothing journaled for the location yet
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading the journal for " + locationSetting, e);
+        } finally {
+            if (null != raf) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing the journal", e);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the location's last response, or null if none was journaled
+     */
+    Entry readLatest(String locationSetting) {
+        List<Entry> entries = read(locationSetting);
+        return entries.isEmpty() ? null : entries.get(entries.size() - 1);
+    }
+
+    /**
+     * Drops the location's journal, as when its location was stored under another setting and
+     * nothing will be fetched under this one again.
+     */
+    synchronized void delete(String locationSetting) {
+        File file = getFile(locationSetting);
+        if (null != file) {
+            file.delete();
+        }
+    }
+
+    private static byte[] encode(long receivedAt, String json) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(json.length() / 4);
+        DeflaterOutputStream out = new DeflaterOutputStream(compressed);
+        out.write(json.getBytes("UTF-8"));
+        out.close();
+        byte[] bytes = compressed.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return ByteBuffer.allocate(HEADER_SIZE + bytes.length)
+                .putInt(MAGIC)
+                .putLong(receivedAt)
+                .putInt(bytes.length)
+                .putInt((int) crc.getValue())
+                .put(bytes)
+                .array();
+    }
+
+    /**
+     * @return the offset just past the last whole record, where the next one goes
+     */
+    private static long findEnd(RandomAccessFile raf) throws IOException {
+        long length = raf.length();
+        long position = 0;
+        while (length - position >= HEADER_SIZE) {
+            raf.seek(position);
+            if (raf.readInt() != MAGIC) {
+                break;
+            }
+            raf.readLong();
+            int size = raf.readInt();
+            if (size < 0 || length - position - HEADER_SIZE < size) {
+                break;
+            }
+            position += HEADER_SIZE + size;
+        }
+        return position;
+    }
+
+    private static void readEntries(RandomAccessFile raf, long end, List<Entry> entries)
+            throws IOException {
+        long position = 0;
+        CRC32 crc = new CRC32();
+        while (end - position >= HEADER_SIZE) {
+            raf.seek(position);
+            if (raf.readInt() != MAGIC) {
+                break;
+            }
+            long receivedAt = raf.readLong();
+            int size = raf.readInt();
+            int checksum = raf.readInt();
+            if (size < 0 || end - position - HEADER_SIZE < size) {
+                break;
+            }
+            byte[] bytes = new byte[size];
+            raf.readFully(bytes);
+            crc.reset();
+            crc.update(bytes);
+            if ((int) crc.getValue() == checksum) {
+                entries.add(new Entry(receivedAt, bytes));
+            } else {
+                Log.w(LOG_TAG, "Skipping a corrupt response received at " + receivedAt);
+            }
+            position += HEADER_SIZE + size;
+        }
+    }
+
+    /**
+     * Rewrites the file with only its newest records that fit in {@code budget} bytes.  The new
+     * file is written next to the old one and renamed over it, so a failure leaves the old one
+     * whole.
+     */
+    private static void compact(File file, long end, int budget) throws IOException {
+        ArrayList<Long> offsets = new ArrayList<Long>();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        byte[] kept;
+        try {
+            long position = 0;
+            while (position < end) {
+                offsets.add(position);
+                raf.seek(position + 4 + 8);
+                position += HEADER_SIZE + raf.readInt();
+            }
+            // The first record that starts late enough for the rest to fit
+            long from = end;
+            for (int i = offsets.size() - 1; i >= 0 && end - offsets.get(i) <= budget; i--) {
+                from = offsets.get(i);
+            }
+            kept = new byte[(int) (end - from)];
+            raf.seek(from);
+            raf.readFully(kept);
+        } finally {
+            raf.close();
+        }
+
+        File temp = new File(file.getPath() + ".new");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(kept);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Couldn't replace " + file);
+        }
+    }
+
+    File getFile(String locationSetting) {
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                Log.e(LOG_TAG, "Couldn't create " + mDirectory);
+                return null;
+            }
+            // Location settings are free text, so make them safe to use as a file name
+            return new File(mDirectory, URLEncoder.encode(locationSetting, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new RuntimeException(e);
+        }
+    }
+}
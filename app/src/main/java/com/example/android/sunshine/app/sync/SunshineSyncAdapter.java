@@ -2,41 +2,35 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
-import android.content.res.Resources;
+import android.database.ContentObserver;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
-import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.ForecastListSnapshot;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastBatch;
+import com.example.android.sunshine.app.data.ForecastRepository;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.LocationIndex;
 import com.example.android.sunshine.app.data.WeatherContract;
-import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.example.android.sunshine.app.wearable.UpdateWearableIntentService;
+import com.example.android.sunshine.app.data.WeatherSnapshotFile;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -50,8 +44,6 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Vector;
-import java.util.concurrent.ExecutionException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -61,22 +53,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
-    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
-    private static final int WEATHER_NOTIFICATION_ID = 3004;
-
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    // Once the server can push forecast changes, polling is only a backstop: 12 hours
+    public static final int SYNC_INTERVAL_PUSH = 60 * 720;
+    public static final int SYNC_FLEXTIME_PUSH = SYNC_INTERVAL_PUSH/3;
+    // A nearby location fetched this recently is as good as fetching the new one
+    private static final long SNAP_FRESHNESS_MILLIS = 1000 * 60 * 60;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -88,12 +69,32 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // The stored locations, built on first use and dropped whenever a location row changes
+    private LocationIndex mLocationIndex;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        context.getContentResolver().registerContentObserver(
+                WeatherContract.LocationEntry.CONTENT_URI, true, new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidateLocationIndex();
+                    }
+                });
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
+        try {
+            performSync(syncResult);
+        } finally {
+            // The process is only kept alive while the sync runs, so whatever the sync asked the
+            // widgets, Muzei and the wearable for is delivered before it returns
+            UpdateDispatcher.getInstance(getContext()).flush();
+        }
+    }
+
+    private void performSync(SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
 
         // We no longer need just the location String, but also potentially the latitude and
@@ -102,6 +103,32 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         String locationQuery = Utility.getPreferredLocation(context);
         String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
         String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
+        ResponseJournal journal = new ResponseJournal(context);
+
+        if (restoreFromJournal(journal, locationQuery)) {
+            Log.d(LOG_TAG, "Sync Complete. Restored a recent forecast from the journal");
+            return;
+        }
+
+        if (Utility.isLocationLatLonAvailable(context)
+                && snapToFreshLocation(locationQuery, Utility.getLocationLatitude(context),
+                        Utility.getLocationLongitude(context))) {
+            Log.d(LOG_TAG, "Sync Complete. Took over a nearby forecast");
+            setLocationStatus(context, LOCATION_STATUS_OK);
+            return;
+        }
+
+        // Every install shares the API key, so don't let syncs landing together use it up
+        ApiRateLimiter rateLimiter = ApiRateLimiter.getInstance(context);
+        if (!rateLimiter.tryAcquire(true)) {
+            Log.d(LOG_TAG, "Sync Skipped. Out of requests to the server until "
+                    + rateLimiter.getNextAllowedAt());
+            // Asks the sync manager to hold off matching syncs for as long
+            syncResult.delayUntil = rateLimiter.getNextAllowedAt() / 1000;
+            // The server can't be asked for now, which the user sees the same as it being down
+            setLocationStatus(context, LOCATION_STATUS_SERVER_DOWN);
+            return;
+        }
 
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
@@ -157,6 +184,13 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             urlConnection.setRequestMethod("GET");
             urlConnection.connect();
 
+            if (urlConnection.getResponseCode() == ApiRateLimiter.HTTP_TOO_MANY_REQUESTS) {
+                rateLimiter.onTooManyRequests(urlConnection.getHeaderField("Retry-After"));
+                syncResult.delayUntil = rateLimiter.getNextAllowedAt() / 1000;
+                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+                return;
+            }
+
             // Read the input stream into a String
             InputStream inputStream = urlConnection.getInputStream();
             StringBuffer buffer = new StringBuffer();
@@ -180,7 +214,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 return;
             }
             forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            long receivedAt = System.currentTimeMillis();
+            if (getWeatherDataFromJson(forecastJsonStr, locationQuery, receivedAt)) {
+                onForecastChanged(context, locationQuery);
+                journal.append(locationQuery, receivedAt, forecastJsonStr);
+            }
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
@@ -211,9 +249,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      *
      * Fortunately parsing is easy:  constructor takes the JSON string and converts it
      * into an Object hierarchy for us.
+     *
+     * @param receivedAt when the response was received, in millis; its first day is the day of
+     *                   this time
+     * @return whether a forecast was stored, in which case the caller brings everything else up
+     *         to date with {@link #onForecastChanged}
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
+    boolean getWeatherDataFromJson(String forecastJsonStr, String locationSetting,
+                                   long receivedAt)
             throws JSONException {
 
         // Now we have a String representing the complete forecast in JSON Format.
@@ -263,10 +306,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                         break;
                     case HttpURLConnection.HTTP_NOT_FOUND:
                         setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
+                        return false;
                     default:
                         setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+                        return false;
                 }
             }
 
@@ -282,7 +325,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
 
             // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+            ForecastBatch batch = new ForecastBatch(locationId, weatherArray.length());
 
             // OWM returns daily forecasts based upon the local time of the city that is being
             // asked for, which means that we need to know the GMT offset to translate this data
@@ -296,7 +339,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             dayTime.setToNow();
 
             // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+            int julianStartDay = Time.getJulianDay(receivedAt, dayTime.gmtoff);
 
             // now we work exclusively in UTC
             dayTime = new Time();
@@ -339,172 +382,54 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 high = temperatureObject.getDouble(OWM_MAX);
                 low = temperatureObject.getDouble(OWM_MIN);
 
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
+                batch.add(dateTime, weatherId, description, high, low, humidity, pressure,
+                        windSpeed, windDirection);
             }
 
-            int inserted = 0;
             // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+            if ( batch.size() > 0 ) {
+                batch.insert(getContext().getContentResolver());
 
                 // delete old data so we don't build up an endless history
                 getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
                         WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
                         new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                updateWearable();
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
+            Log.d(LOG_TAG, "Sync Complete. " + batch.size() + " Inserted");
             setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            return batch.size() > 0;
 
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            return false;
         }
     }
 
-    private void updateWidgets() {
-        Context context = getContext();
-        // Setting the package ensures that only components in our app will receive the broadcast
-        Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
-        context.sendBroadcast(dataUpdatedIntent);
-    }
-
-    private void updateMuzei() {
-        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
-        // Muzei background on lower API level devices
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
-            context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
-        }
+    /**
+     * Brings everything outside of the database up to date after the forecast for a location was
+     * written, whether by a sync or from a pushed delta.
+     */
+    public static void onForecastChanged(Context context, String locationSetting) {
+        writeSnapshots(context, locationSetting);
+        UpdateDispatcher.getInstance(context).requestUpdate(UpdateDispatcher.CONSUMER_ALL);
+        // Posted in the background, so the sync never waits on the art server
+        WeatherNotifier.getInstance(context).requestNotification();
     }
 
-    private void notifyWeather() {
-        Context context = getContext();
-        //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if ( displayNotifications ) {
-
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
-
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
-                // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
-                }
-                cursor.close();
-            }
-        }
+    /*
+        Writes the forecast out for the consumers that shouldn't have to wait on the database:
+        the forecast list on a cold start, and the widgets, Muzei, the notification and the
+        wearable.
+     */
+    private static void writeSnapshots(Context context, String locationSetting) {
+        // Refresh rather than get, since the provider's change notification for the write
+        // may not have reached the repository yet
+        ForecastSnapshot forecast = ForecastRepository.getInstance(context)
+                .refreshForecast(locationSetting);
+        ForecastListSnapshot.write(context, forecast);
+        WeatherSnapshotFile.write(context, forecast);
     }
 
     /**
@@ -518,6 +443,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
         long locationId;
+        LocationIndex.Location nearby;
 
         // First, check if the location with this city name exists in the db
         Cursor locationCursor = getContext().getContentResolver().query(
@@ -530,6 +456,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         if (locationCursor.moveToFirst()) {
             int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
             locationId = locationCursor.getLong(locationIdIndex);
+        } else if (null != (nearby = findNearbyLocation(lat, lon))) {
+            // The same place entered another way: keep a single row for it, under the setting
+            // now in use
+            locationId = renameLocation(nearby, locationSetting, cityName, lat, lon);
         } else {
             // Now that the content provider is set up, inserting rows of data is pretty simple.
             // First create a ContentValues object to hold the data you want to insert.
@@ -550,6 +480,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
             locationId = ContentUris.parseId(insertedUri);
+            invalidateLocationIndex();
         }
 
         locationCursor.close();
@@ -557,6 +488,172 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         return locationId;
     }
 
+    /**
+     * @return the stored location within the snap radius of the coordinates, or null
+     */
+    private LocationIndex.Location findNearbyLocation(double lat, double lon) {
+        Context context = getContext();
+        return getLocationIndex().findNearest(lat, lon,
+                context.getResources().getInteger(R.integer.location_snap_radius_meters));
+    }
+
+    private synchronized LocationIndex getLocationIndex() {
+        if (null == mLocationIndex) {
+            mLocationIndex = LocationIndex.query(getContext().getContentResolver());
+        }
+        return mLocationIndex;
+    }
+
+    private synchronized void invalidateLocationIndex() {
+        mLocationIndex = null;
+    }
+
+    /**
+     * Stores the location under the new setting.  If another row already has that setting (the
+     * column is unique), the location's weather is moved over to that row and the location's own
+     * row is deleted instead.  Whatever was kept on disk for the old setting is deleted either way,
+     * since nothing will read it again.
+     *
+     * @return the row ID of the location under the new setting
+     */
+    long renameLocation(LocationIndex.Location location, String locationSetting) {
+        return renameLocation(location, locationSetting, null, 0, 0);
+    }
+
+    /**
+     * Like {@link #renameLocation(LocationIndex.Location, String)}, but also stores the city name
+     * and coordinates the server answered with for the new setting, so the screens show the
+     * place that was asked for rather than the one snapped to.
+     *
+     * @param cityName the city name to store, or null to keep the stored city and coordinates
+     */
+    long renameLocation(LocationIndex.Location location, String locationSetting,
+                        String cityName, double lat, double lon) {
+        Context context = getContext();
+        ContentResolver resolver = context.getContentResolver();
+        long locationId = location.id;
+        long existingId = -1;
+        Cursor locationCursor = resolver.query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (null != locationCursor) {
+            if (locationCursor.moveToFirst()) {
+                existingId = locationCursor.getLong(0);
+            }
+            locationCursor.close();
+        }
+
+        ContentValues placeValues = new ContentValues();
+        if (null != cityName) {
+            placeValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+            placeValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+            placeValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        }
+
+        if (existingId == location.id) {
+            return locationId;
+        } else if (-1 != existingId) {
+            Log.d(LOG_TAG, "Merging " + location.locationSetting + " into " + locationSetting
+                    + ", which is nearby");
+            // The moved rows replace any for the same days, as this forecast is the fresher one
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, existingId);
+            resolver.update(WeatherContract.WeatherEntry.CONTENT_URI, weatherValues,
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                    new String[]{Long.toString(location.id)});
+            resolver.delete(WeatherContract.LocationEntry.CONTENT_URI,
+                    WeatherContract.LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(location.id)});
+            if (placeValues.size() > 0) {
+                resolver.update(WeatherContract.LocationEntry.CONTENT_URI, placeValues,
+                        WeatherContract.LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(existingId)});
+            }
+            locationId = existingId;
+        } else {
+            Log.d(LOG_TAG, "Storing " + locationSetting + " as " + location.locationSetting
+                    + ", which is nearby");
+            ContentValues values = new ContentValues(placeValues);
+            values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            resolver.update(WeatherContract.LocationEntry.CONTENT_URI, values,
+                    WeatherContract.LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(location.id)});
+        }
+        invalidateLocationIndex();
+
+        WeatherSnapshotFile.delete(context, location.locationSetting);
+        ForecastListSnapshot.delete(context, location.locationSetting);
+        new ResponseJournal(context).delete(location.locationSetting);
+        return locationId;
+    }
+
+    /**
+     * When the location was given as coordinates and a nearby location was fetched recently,
+     * takes that forecast over instead of fetching the same place again.
+     *
+     * @return whether the forecast was taken over
+     */
+    private boolean snapToFreshLocation(String locationSetting, double lat, double lon) {
+        Context context = getContext();
+        if (null != WeatherSnapshotFile.open(context, locationSetting)) {
+            // Fetched under this setting before, so there's nothing to take over
+            return false;
+        }
+        LocationIndex.Location nearby = findNearbyLocation(lat, lon);
+        if (null == nearby) {
+            return false;
+        }
+        WeatherSnapshotFile snapshot = WeatherSnapshotFile.open(context, nearby.locationSetting);
+        if (null == snapshot
+                || System.currentTimeMillis() - snapshot.getWrittenAt() > SNAP_FRESHNESS_MILLIS) {
+            return false;
+        }
+        renameLocation(nearby, locationSetting);
+        onForecastChanged(context, locationSetting);
+        return true;
+    }
+
+    /**
+     * When the database has no weather for the location, as after a schema upgrade or a wipe,
+     * stores the last response journaled for it again rather than leaving the screens empty until
+     * the server answers.
+     *
+     * @return whether the restored forecast is recent enough that there's no need to fetch it
+     */
+    private boolean restoreFromJournal(ResponseJournal journal, String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (null == cursor) {
+            return false;
+        }
+        boolean hasWeather = cursor.moveToFirst();
+        cursor.close();
+        if (hasWeather) {
+            return false;
+        }
+
+        ResponseJournal.Entry latest = journal.readLatest(locationSetting);
+        if (null == latest) {
+            return false;
+        }
+        try {
+            if (!getWeatherDataFromJson(latest.getJson(), locationSetting, latest.receivedAt)) {
+                return false;
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(LOG_TAG, "Error restoring the journaled forecast for " + locationSetting, e);
+            return false;
+        }
+        Log.d(LOG_TAG, "Restored the forecast for " + locationSetting + " received at "
+                + latest.receivedAt);
+        onForecastChanged(getContext(), locationSetting);
+        return System.currentTimeMillis() - latest.receivedAt < SYNC_INTERVAL * 1000L;
+    }
+
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -661,11 +758,5 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         spe.commit();
     }
 
-    private void updateWearable() {
-        Context context = getContext();
-        context.startService(new Intent(ACTION_DATA_UPDATED)
-                .setClass(context, UpdateWearableIntentService.class));
-    }
-
 
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.app.wearable.UpdateWearableIntentService;
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Delivers "the weather changed" to the consumers outside of the app: the widgets, the Muzei
+ * source and the wearable.
+ *
+ * Requests arriving within a short window (a sync followed by a units change, several syncs in a
+ * row) are coalesced into a single delivery, and consumers that aren't in use (no widgets placed,
+ * Muzei source not selected, no wearable companion app) aren't woken at all.
+ *
+ * The window is timed on the main thread, which only lives as long as the process does.  Work
+ * that the system may kill the process after, like a sync or a pushed message, calls
+ * {@link #flush()} before it returns, so its requests are coalesced with each other and
+ * delivered while the process is still kept alive for it.
+ */
+public class UpdateDispatcher {
+    private static final String LOG_TAG = UpdateDispatcher.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(flag = true, value = {CONSUMER_WIDGETS, CONSUMER_MUZEI, CONSUMER_WEARABLE})
+    public @interface Consumer {}
+
+    public static final int CONSUMER_WIDGETS = 1;
+    public static final int CONSUMER_MUZEI = 1 << 1;
+    public static final int CONSUMER_WEARABLE = 1 << 2;
+    public static final int CONSUMER_ALL = CONSUMER_WIDGETS | CONSUMER_MUZEI | CONSUMER_WEARABLE;
+
+    private static final String PREFS = "update_dispatcher";
+    private static final String KEY_MUZEI_ENABLED = "muzei_enabled";
+    private static final String WEAR_COMPANION_PACKAGE = "com.google.android.wearable.app";
+
+    private static UpdateDispatcher sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final long mWindowMillis;
+
+    // Consumers waiting for the pending delivery; guarded by this
+    private int mPendingConsumers;
+    private boolean mDeliveryScheduled;
+
+    // Counters, guarded by this
+    private int mRequests;
+    private int mDroppedDuplicates;
+    private int mDeliveries;
+    private int mSkippedUnused;
+
+    private final Runnable mDeliver = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    public static synchronized UpdateDispatcher getInstance(Context context) {
+        if (null == sInstance) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new UpdateDispatcher(appContext,
+                    appContext.getResources().getInteger(R.integer.update_coalesce_window_millis));
+        }
+        return sInstance;
+    }
+
+    UpdateDispatcher(Context context, long windowMillis) {
+        mContext = context;
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Asks for the given consumers to be updated.  The update is delivered once the coalescing
+     * window has passed, together with any other request made in the meantime.  This can be
+     * called from any thread.
+     */
+    public synchronized void requestUpdate(@Consumer int consumers) {
+        mRequests++;
+        // Every consumer that was already waiting is a duplicate that won't cost anything
+        mDroppedDuplicates += Integer.bitCount(mPendingConsumers & consumers);
+        mPendingConsumers |= consumers;
+        if (!mDeliveryScheduled) {
+            mDeliveryScheduled = true;
+            mHandler.postDelayed(mDeliver, mWindowMillis);
+        }
+    }
+
+    /**
+     * Delivers the pending update right away, on the calling thread, rather than when the window
+     * has passed.  Does nothing if no update is pending.
+     */
+    public void flush() {
+        synchronized (this) {
+            if (!mDeliveryScheduled) {
+                return;
+            }
+            mHandler.removeCallbacks(mDeliver);
+        }
+        deliver();
+    }
+
+    /**
+     * Called by the Muzei source when the user selects or deselects it, since only Muzei itself
+     * knows whether it is in use.
+     */
+    public static void setMuzeiEnabled(Context context, boolean enabled) {
+        context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit()
+                .putBoolean(KEY_MUZEI_ENABLED, enabled)
+                .apply();
+    }
+
+    void deliver() {
+        int consumers;
+        synchronized (this) {
+            consumers = mPendingConsumers;
+            mPendingConsumers = 0;
+            mDeliveryScheduled = false;
+        }
+        if (0 == consumers) {
+            // Flushed while the delivery was already running
+            return;
+        }
+
+        int delivered = 0;
+        int skipped = 0;
+        if ((consumers & CONSUMER_WIDGETS) != 0) {
+            // Each widget provider only hears about it if it has widgets placed
+            if (deliverToWidgets(TodayWidgetProvider.class)) {
+                delivered++;
+            } else {
+                skipped++;
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                if (deliverToWidgets(DetailWidgetProvider.class)) {
+                    delivered++;
+                } else {
+                    skipped++;
+                }
+            }
+        }
+        if ((consumers & CONSUMER_MUZEI) != 0) {
+            // Muzei is only compatible with Jelly Bean MR1+ devices
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && isMuzeiEnabled()) {
+                mContext.startService(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                        .setClass(mContext, WeatherMuzeiSource.class));
+                delivered++;
+            } else {
+                skipped++;
+            }
+        }
+        if ((consumers & CONSUMER_WEARABLE) != 0) {
+            if (isWearableCompanionInstalled()) {
+                mContext.startService(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                        .setClass(mContext, UpdateWearableIntentService.class));
+                delivered++;
+            } else {
+                skipped++;
+            }
+        }
+
+        synchronized (this) {
+            mDeliveries += delivered;
+            mSkippedUnused += skipped;
+            Log.d(LOG_TAG, "Delivered " + delivered + " updates, skipped " + skipped
+                    + " unused consumers (" + mRequests + " requests, " + mDroppedDuplicates
+                    + " duplicates dropped, " + mDeliveries + " delivered, " + mSkippedUnused
+                    + " skipped so far)");
+        }
+    }
+
+    private boolean deliverToWidgets(Class<?> provider) {
+        ComponentName component = new ComponentName(mContext, provider);
+        int[] appWidgetIds = AppWidgetManager.getInstance(mContext).getAppWidgetIds(component);
+        if (null == appWidgetIds || appWidgetIds.length == 0) {
+            return false;
+        }
+        // Addressed to the provider, so only components in our app will receive the broadcast
+        mContext.sendBroadcast(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                .setComponent(component));
+        return true;
+    }
+
+    private boolean isMuzeiEnabled() {
+        // Until the source has been (de)selected since this was introduced we can't tell, so
+        // let the source check for itself
+        return mContext.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+                .getBoolean(KEY_MUZEI_ENABLED, true);
+    }
+
+    private boolean isWearableCompanionInstalled() {
+        try {
+            mContext.getPackageManager().getPackageInfo(WEAR_COMPANION_PACKAGE, 0);
+            return true;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+
+    public synchronized int getRequestCount() {
+        return mRequests;
+    }
+
+    public synchronized int getDroppedDuplicateCount() {
+        return mDroppedDuplicates;
+    }
+
+    public synchronized int getDeliveryCount() {
+        return mDeliveries;
+    }
+
+    public synchronized int getSkippedUnusedCount() {
+        return mSkippedUnused;
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.SuppressLint;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.TaskStackBuilder;
+import android.support.v4.util.AtomicFile;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
+import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherSnapshotFile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Posts the daily weather notification on its own background thread, so that a sync never waits
+ * on the art server for the notification's large icon.
+ *
+ * Large icons are kept scaled to the notification's size, in memory and in the cache directory,
+ * keyed by their URL.  The URL includes the art pack, so each pack has its own icons, and the
+ * resource fallback used while the server can't be reached is never cached, so the download is
+ * tried again next time.
+ */
+class WeatherNotifier {
+    private static final String LOG_TAG = WeatherNotifier.class.getSimpleName();
+
+    static final int WEATHER_NOTIFICATION_ID = 3004;
+    static final String CACHE_DIRECTORY = "notification_icons";
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FETCH_TIMEOUT_MILLIS = 30 * 1000;
+    // A few large icons; there's only ever one notification
+    private static final int MAX_BYTES = 512 * 1024;
+
+    /**
+     * Where the art comes from.  Anything but the default is only meant for tests.
+     */
+    interface ArtSource {
+        /**
+         * Fetches the art scaled to fit the given size, blocking for at most
+         * {@code timeoutMillis}.
+         */
+        Bitmap load(String artUrl, int width, int height, long timeoutMillis) throws IOException;
+    }
+
+    private static WeatherNotifier sInstance;
+
+    private final Context mContext;
+    private final ArtSource mArtSource;
+    private final long mFetchTimeoutMillis;
+    private final Handler mWorker;
+    private final int mLargeIconWidth;
+    private final int mLargeIconHeight;
+
+    private final LruCache<String, Bitmap> mLargeIcons = new LruCache<String, Bitmap>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap icon) {
+            return icon.getRowBytes() * icon.getHeight();
+        }
+    };
+
+    private final Runnable mNotify = new Runnable() {
+        @Override
+        public void run() {
+            notifyWeather();
+        }
+    };
+
+    static synchronized WeatherNotifier getInstance(final Context context) {
+        if (null == sInstance) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new WeatherNotifier(appContext, new ArtSource() {
+                @Override
+                public Bitmap load(String artUrl, int width, int height, long timeoutMillis)
+                        throws IOException {
+                    FutureTarget<Bitmap> target = Glide.with(appContext)
+                            .load(artUrl)
+                            .asBitmap()
+                            .fitCenter()
+                            .into(width, height);
+                    try {
+                        return target.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                        throw new IOException("Error retrieving large icon from " + artUrl, e);
+                    }
+                }
+            }, FETCH_TIMEOUT_MILLIS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Replaces the notifier the sync posts through, so tests can control where the art comes
+     * from.
+     *
+     * @return the notifier that was in use
+     */
+    static synchronized WeatherNotifier setInstance(WeatherNotifier notifier) {
+        WeatherNotifier previous = sInstance;
+        sInstance = notifier;
+        return previous;
+    }
+
+    @SuppressLint("InlinedApi")
+    WeatherNotifier(Context context, ArtSource artSource, long fetchTimeoutMillis) {
+        mContext = context;
+        mArtSource = artSource;
+        mFetchTimeoutMillis = fetchTimeoutMillis;
+
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        Resources resources = context.getResources();
+        mLargeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        mLargeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+        HandlerThread thread = new HandlerThread(LOG_TAG);
+        thread.start();
+        mWorker = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Posts the notification in the background if it is enabled and the last one is more than a
+     * day old.  This returns right away and can be called from any thread.
+     */
+    void requestNotification() {
+        // One pending notification is as good as several
+        mWorker.removeCallbacks(mNotify);
+        mWorker.post(mNotify);
+    }
+
+    /**
+     * Stops the worker thread, dropping any notification still pending.  Only tests, which make
+     * their own notifiers, have any use for this.
+     */
+    void quit() {
+        mWorker.getLooper().quit();
+    }
+
+    private void notifyWeather() {
+        Context context = mContext;
+        //checking the last update and notify if it' the first of the day
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
+        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
+                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
+        if (!displayNotifications) {
+            return;
+        }
+
+        String lastNotificationKey = context.getString(R.string.pref_last_notification);
+        long lastSync = prefs.getLong(lastNotificationKey, 0);
+        if (System.currentTimeMillis() - lastSync < DAY_IN_MILLIS) {
+            return;
+        }
+
+        // Last sync was more than 1 day ago, let's send a notification with the weather.
+        String locationQuery = Utility.getPreferredLocation(context);
+
+        // The snapshot written at the end of the sync has everything we need
+        WeatherSnapshotFile snapshot = WeatherSnapshotFile.openOrBuild(context, locationQuery);
+        int today = null == snapshot ? 0 : snapshot.getToday();
+        if (null == snapshot || today >= snapshot.getDayCount()) {
+            return;
+        }
+
+        int weatherId = snapshot.getWeatherId(today);
+        double high = snapshot.getHigh(today);
+        double low = snapshot.getLow(today);
+        String desc = Utility.getStringForWeatherCondition(context, weatherId);
+        int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+        String title = context.getString(R.string.app_name);
+
+        // Define the text of the forecast.
+        String contentText = String.format(context.getString(R.string.format_notification),
+                desc,
+                Utility.formatTemperature(context, high),
+                Utility.formatTemperature(context, low));
+
+        // NotificationCompatBuilder is a very convenient way to build backward-compatible
+        // notifications.  Just throw in some data.
+        NotificationCompat.Builder builder =
+                new NotificationCompat.Builder(context)
+                        .setColor(context.getResources().getColor(R.color.primary_light))
+                        .setSmallIcon(iconId)
+                        .setLargeIcon(getLargeIcon(weatherId))
+                        .setContentTitle(title)
+                        .setContentText(contentText);
+
+        // Make something interesting happen when the user clicks on the notification.
+        // In this case, opening the app is sufficient.
+        Intent resultIntent = new Intent(context, MainActivity.class);
+
+        // The stack builder object will contain an artificial back stack for the
+        // started Activity.
+        // This ensures that navigating backward from the Activity leads out of
+        // your application to the Home screen.
+        TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+        stackBuilder.addNextIntent(resultIntent);
+        PendingIntent resultPendingIntent =
+                stackBuilder.getPendingIntent(
+                        0,
+                        PendingIntent.FLAG_UPDATE_CURRENT
+                );
+        builder.setContentIntent(resultPendingIntent);
+
+        NotificationManager notificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+        notificationManager.notify(WEATHER_NOTIFICATION_ID, builder.build());
+
+        //refreshing last sync
+        prefs.edit()
+                .putLong(lastNotificationKey, System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * Returns the large icon for a condition at the notification's size, from the cache if
+     * possible.  This blocks on the art server, so it must only be called on the worker thread
+     * (or in tests).
+     */
+    Bitmap getLargeIcon(int weatherId) {
+        String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+        String key = artUrl + "@" + mLargeIconWidth + "x" + mLargeIconHeight;
+        Bitmap icon = mLargeIcons.get(key);
+        if (null != icon) {
+            return icon;
+        }
+
+        File file = new File(new File(mContext.getCacheDir(), CACHE_DIRECTORY),
+                String.format("%08x.png", key.hashCode()));
+        icon = BitmapFactory.decodeFile(file.getPath());
+        if (null == icon) {
+            try {
+                icon = mArtSource.load(artUrl, mLargeIconWidth, mLargeIconHeight,
+                        mFetchTimeoutMillis);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, e.getMessage(), e);
+            }
+            if (null == icon) {
+                return decodeArtResource(Utility.getArtResourceForWeatherCondition(weatherId));
+            }
+            writeIcon(file, icon);
+        }
+        mLargeIcons.put(key, icon);
+        return icon;
+    }
+
+    private static void writeIcon(File file, Bitmap icon) {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Couldn't create " + directory);
+            return;
+        }
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream fos = null;
+        try {
+            fos = atomicFile.startWrite();
+            if (!icon.compress(Bitmap.CompressFormat.PNG, 100, fos)) {
+                throw new IOException("Couldn't compress the icon");
+            }
+            atomicFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error caching large icon in " + file, e);
+            atomicFile.failWrite(fos);
+        }
+    }
+
+    private Bitmap decodeArtResource(int artResourceId) {
+        // Read the size first, to only decode as many pixels as needed
+        Resources resources = mContext.getResources();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, artResourceId, options);
+
+        options.inSampleSize = 1;
+        while (options.outWidth / (options.inSampleSize * 2) >= mLargeIconWidth
+                && options.outHeight / (options.inSampleSize * 2) >= mLargeIconHeight) {
+            options.inSampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        Bitmap decoded = BitmapFactory.decodeResource(resources, artResourceId, options);
+        if (null == decoded || (decoded.getWidth() == mLargeIconWidth
+                && decoded.getHeight() == mLargeIconHeight)) {
+            return decoded;
+        }
+        Bitmap icon = Bitmap.createScaledBitmap(decoded, mLargeIconWidth, mLargeIconHeight, true);
+        if (icon != decoded) {
+            decoded.recycle();
+        }
+        return icon;
+    }
+
+    int getLargeIconWidth() {
+        return mLargeIconWidth;
+    }
+
+    int getLargeIconHeight() {
+        return mLargeIconHeight;
+    }
+}
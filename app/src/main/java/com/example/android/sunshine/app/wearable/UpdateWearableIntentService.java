@@ -1,28 +1,24 @@
 package com.example.android.sunshine.app.wearable;
 
 import android.app.IntentService;
+import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.net.Uri;
+import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.util.Base64;
 import android.util.Log;
 
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherSnapshotFile;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by joeyturczak on 1/21/16.
@@ -33,20 +29,19 @@ public class UpdateWearableIntentService extends IntentService implements
 
     private static final String LOG_TAG = UpdateWearableIntentService.class.getSimpleName();
 
-    private static final String[] FORECAST_COLUMNS = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
+    public static final String PATH = "/weather";
+    public static final String FORECAST = "forecast";
+    // The watch sends a message to this path when it got a delta it can't apply
+    public static final String RESYNC_PATH = "/weather/resync";
 
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
+    private static final String PREFS = "wearable_state";
+    private static final String KEY_SEQUENCE = "sequence";
+    private static final String KEY_LAST_FORECAST = "last_forecast";
 
-    public static final String PATH = "/weather";
-    public static final String HIGH = "high";
-    public static final String LOW = "low";
-    public static final String ICON = "icon";
+    // Smaller temperature changes are sent along with the next batch the watch picks up, rather
+    // than waking it up
+    private static final int MATERIAL_CHANGE_TENTHS = 30;
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
 
     private GoogleApiClient mGoogleApiClient;
 
@@ -54,92 +49,105 @@ public class UpdateWearableIntentService extends IntentService implements
         super("UpdateWeatherIntentService");
     }
 
+    /**
+     * Forgets what the watch was sent, so the next update sends it the full forecast.
+     */
+    static void resync(Context context) {
+        context.getSharedPreferences(PREFS, MODE_PRIVATE).edit()
+                .remove(KEY_LAST_FORECAST)
+                .commit();
+        context.startService(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                .setClass(context, UpdateWearableIntentService.class));
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
         boolean dataUpdated = intent != null &&
                 SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction());
         if (dataUpdated) {
-
-            mGoogleApiClient = new GoogleApiClient.Builder(this)
-                    .addApi(Wearable.API)
-                    .addConnectionCallbacks(this)
-                    .addOnConnectionFailedListener(this)
-                    .build();
-            mGoogleApiClient.connect();
             String location = Utility.getPreferredLocation(this);
-            Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                    location, System.currentTimeMillis());
-            Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                    null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-            if (cursor.moveToFirst()) {
-                int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                double highCelcius = cursor.getDouble(INDEX_MAX_TEMP);
-                double lowCelcius = cursor.getDouble(INDEX_MIN_TEMP);
-
-                int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                Bitmap icon = BitmapFactory.decodeResource(getResources(), iconId);
-
-                Asset asset = toAsset(icon);
-
-                String high = Utility.formatTemperature(this, highCelcius);
-                String low = Utility.formatTemperature(this, lowCelcius);
-
-                sendWeatherData(asset, high, low);
+            WeatherSnapshotFile snapshot = WeatherSnapshotFile.openOrBuild(this, location);
+            int today = null == snapshot ? 0 : snapshot.getToday();
+            if (null != snapshot && today < snapshot.getDayCount()) {
+                WearableForecast forecast =
+                        WearableForecast.from(snapshot, today, Utility.isMetric(this));
+
+                SharedPreferences state = getSharedPreferences(PREFS, MODE_PRIVATE);
+                WearableForecast last = null;
+                String lastEncoded = state.getString(KEY_LAST_FORECAST, null);
+                if (null != lastEncoded) {
+                    last = WearableForecast.decodeFull(Base64.decode(lastEncoded, Base64.NO_WRAP));
+                }
+                if (forecast.equals(last)) {
+                    Log.d(LOG_TAG, "Wearable already has this forecast, not sending it");
+                    return;
+                }
 
+                int lastSequence = state.getInt(KEY_SEQUENCE, 0);
+                int sequence = lastSequence + 1;
+                byte[] payload = null == last
+                        ? null : forecast.encodeDelta(sequence, lastSequence, last);
+                if (null == payload) {
+                    payload = forecast.encodeFull(sequence);
+                }
+                boolean urgent = null == last
+                        || forecast.isMaterialChange(last, MATERIAL_CHANGE_TENTHS);
+
+                if (sendWeatherData(payload, urgent)) {
+                    // Remember what the watch now has, to compute the next delta from
+                    String sent = Base64.encodeToString(forecast.encodeFull(sequence),
+                            Base64.NO_WRAP);
+                    state.edit()
+                            .putInt(KEY_SEQUENCE, sequence)
+                            .putString(KEY_LAST_FORECAST, sent)
+                            .apply();
+                }
             }
-            cursor.close();
         }
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        mGoogleApiClient.disconnect();
+        if (null != mGoogleApiClient) {
+            mGoogleApiClient.disconnect();
+        }
     }
 
     /**
-     * Sends the weather data by adding it to the Data Item store.
+     * Sends the forecast by adding it to the Data Item store.  The client is only connected once
+     * there actually is something to send.
+     *
+     * @param urgent whether the change is worth waking the watch up for
+     * @return whether the data item was stored
      */
-    private void sendWeatherData(Asset asset, String high, String low) {
+    private boolean sendWeatherData(byte[] payload, boolean urgent) {
+        if (null == mGoogleApiClient) {
+            mGoogleApiClient = new GoogleApiClient.Builder(this)
+                    .addApi(Wearable.API)
+                    .addConnectionCallbacks(this)
+                    .addOnConnectionFailedListener(this)
+                    .build();
+        }
+        ConnectionResult connection =
+                mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!connection.isSuccess()) {
+            Log.e(LOG_TAG, "Couldn't connect to the wearable API: " + connection);
+            return false;
+        }
+
         PutDataMapRequest dataMap = PutDataMapRequest.create(PATH);
-        dataMap.getDataMap().putAsset(ICON, asset);
-        dataMap.getDataMap().putString(HIGH, high);
-        dataMap.getDataMap().putString(LOW, low);
+        dataMap.getDataMap().putByteArray(FORECAST, payload);
         PutDataRequest request = dataMap.asPutDataRequest();
-        request.setUrgent();
-
-        Wearable.DataApi.putDataItem(mGoogleApiClient, request)
-                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                    @Override
-                    public void onResult(DataApi.DataItemResult dataItemResult) {
-                        Log.d(LOG_TAG, "Sending data was successful: " + dataItemResult.getStatus()
-                                .isSuccess());
-                    }
-                });
-
-    }
-
-    /**
-     * Builds an {@link com.google.android.gms.wearable.Asset} from a bitmap. Typically, your image
-     * should not exceed 320x320 and if you want to have zoom and parallax effect in your app, limit
-     * the size of your image to 640x400. Resize your image before transferring to your wearable
-     * device.
-     */
-    public static Asset toAsset(Bitmap bitmap) {
-        ByteArrayOutputStream byteStream = null;
-        try {
-            byteStream = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-            return Asset.createFromBytes(byteStream.toByteArray());
-        } finally {
-            if (null != byteStream) {
-                try {
-                    byteStream.close();
-                } catch (IOException e) {
-                    // ignore
-                }
-            }
+        if (urgent) {
+            request.setUrgent();
         }
+
+        DataApi.DataItemResult result = Wearable.DataApi.putDataItem(mGoogleApiClient, request)
+                .await();
+        Log.d(LOG_TAG, "Sending " + payload.length + " bytes" + (urgent ? ", urgently," : "")
+                + " was successful: " + result.getStatus().isSuccess());
+        return result.getStatus().isSuccess();
     }
 
     @Override // GoogleApiClient.ConnectionCallbacks
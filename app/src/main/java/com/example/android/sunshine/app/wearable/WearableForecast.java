@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wearable;
+
+import com.example.android.sunshine.app.data.WeatherSnapshotFile;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The forecast as it is sent to the watch: a few days of condition ids and raw temperatures in
+ * tenths of a degree Celsius, with the units applied by the watch itself.  The watch renders the
+ * icons from its own resources, so no images are sent.
+ *
+ * Every payload has a sequence number.  A full payload replaces whatever the watch has, a delta
+ * only carries the days that changed since the payload it is based on, and the watch asks for a
+ * full one (see {@link UpdateWearableIntentService#RESYNC_PATH}) when it doesn't have that one.
+ *
+ * Layout, big-endian, which must match the watch's WatchForecast:
+ * <pre>
+ *   byte   version
+ *   byte   type, {@link #TYPE_FULL} or {@link #TYPE_DELTA}
+ *   byte   flags, {@link #FLAG_METRIC}
+ *   int    sequence
+ *   int    sequence of the base payload (deltas only)
+ *   long   date of the first day, in millis
+ *   byte   number of days
+ *   full:  for each day, short weather id, short high, short low
+ *   delta: byte number of changed days, then for each of them byte index of the day, followed by
+ *          the day as in a full payload
+ * </pre>
+ */
+class WearableForecast {
+    static final byte VERSION = 1;
+    static final byte TYPE_FULL = 0;
+    static final byte TYPE_DELTA = 1;
+    static final byte FLAG_METRIC = 1;
+
+    // The watch face has no room for more
+    static final int MAX_DAYS = 7;
+
+    private static final int HEADER_SIZE = 1 + 1 + 1 + 4;
+    private static final int DAY_SIZE = 2 + 2 + 2;
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+
+    final boolean isMetric;
+    final long firstDate;
+    final short[] weatherIds;
+    final short[] highs;
+    final short[] lows;
+
+    private WearableForecast(boolean isMetric, long firstDate, int days) {
+        this.isMetric = isMetric;
+        this.firstDate = firstDate;
+        weatherIds = new short[days];
+        highs = new short[days];
+        lows = new short[days];
+    }
+
+    /**
+     * @param today the index of today in the snapshot, which has to be one of its days
+     */
+    static WearableForecast from(WeatherSnapshotFile snapshot, int today, boolean isMetric) {
+        int days = Math.min(MAX_DAYS, snapshot.getDayCount() - today);
+        WearableForecast forecast = new WearableForecast(isMetric, snapshot.getDate(today), days);
+        for (int i = 0; i < days; i++) {
+            forecast.weatherIds[i] = (short) snapshot.getWeatherId(today + i);
+            forecast.highs[i] = toTenths(snapshot.getHigh(today + i));
+            forecast.lows[i] = toTenths(snapshot.getLow(today + i));
+        }
+        return forecast;
+    }
+
+    private static short toTenths(float celsius) {
+        return (short) Math.round(celsius * 10);
+    }
+
+    int getDayCount() {
+        return weatherIds.length;
+    }
+
+    byte[] encodeFull(int sequence) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 8 + 1 + getDayCount() * DAY_SIZE);
+        putHeader(buffer, TYPE_FULL, sequence);
+        buffer.putLong(firstDate).put((byte) getDayCount());
+        for (int i = 0; i < getDayCount(); i++) {
+            putDay(buffer, i);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @return a delta from {@code base} to this forecast, or null if the days don't line up and a
+     *         full payload has to be sent
+     */
+    byte[] encodeDelta(int sequence, int baseSequence, WearableForecast base) {
+        if (base.firstDate != firstDate || base.getDayCount() != getDayCount()) {
+            return null;
+        }
+        int changed = 0;
+        for (int i = 0; i < getDayCount(); i++) {
+            if (!base.isSameDay(i, this, i)) {
+                changed++;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(
+                HEADER_SIZE + 4 + 8 + 1 + 1 + changed * (1 + DAY_SIZE));
+        putHeader(buffer, TYPE_DELTA, sequence);
+        buffer.putInt(baseSequence)
+                .putLong(firstDate)
+                .put((byte) getDayCount())
+                .put((byte) changed);
+        for (int i = 0; i < getDayCount(); i++) {
+            if (!base.isSameDay(i, this, i)) {
+                buffer.put((byte) i);
+                putDay(buffer, i);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Reads back a full payload written by {@link #encodeFull(int)}.
+     *
+     * @return the forecast, or null if the payload isn't a full one of this version
+     */
+    static WearableForecast decodeFull(byte[] payload) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            if (buffer.get() != VERSION || buffer.get() != TYPE_FULL) {
+                return null;
+            }
+            boolean isMetric = (buffer.get() & FLAG_METRIC) != 0;
+            buffer.getInt();
+            WearableForecast forecast =
+                    new WearableForecast(isMetric, buffer.getLong(), buffer.get());
+            for (int i = 0; i < forecast.getDayCount(); i++) {
+                forecast.weatherIds[i] = buffer.getShort();
+                forecast.highs[i] = buffer.getShort();
+                forecast.lows[i] = buffer.getShort();
+            }
+            return forecast;
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return whether going from {@code previous} to this forecast is worth waking the watch up
+     *         for: another condition or a large temperature change today, or other units
+     */
+    boolean isMaterialChange(WearableForecast previous, int materialChangeTenths) {
+        if (previous.isMetric != isMetric || getDayCount() == 0) {
+            return true;
+        }
+        // Look for today in the previous forecast, it may have started a day earlier (days are
+        // local midnights, so they aren't always exactly a day apart)
+        int i = (int) Math.round((firstDate - previous.firstDate) / (double) DAY_IN_MILLIS);
+        if (i >= 0 && i < previous.getDayCount()) {
+            return previous.weatherIds[i] != weatherIds[0]
+                    || Math.abs(previous.highs[i] - highs[0]) >= materialChangeTenths
+                    || Math.abs(previous.lows[i] - lows[0]) >= materialChangeTenths;
+        }
+        return true;
+    }
+
+    private boolean isSameDay(int day, WearableForecast other, int otherDay) {
+        return weatherIds[day] == other.weatherIds[otherDay]
+                && highs[day] == other.highs[otherDay]
+                && lows[day] == other.lows[otherDay];
+    }
+
+    private void putHeader(ByteBuffer buffer, byte type, int sequence) {
+        buffer.put(VERSION)
+                .put(type)
+                .put(isMetric ? FLAG_METRIC : 0)
+                .putInt(sequence);
+    }
+
+    private void putDay(ByteBuffer buffer, int day) {
+        buffer.putShort(weatherIds[day])
+                .putShort(highs[day])
+                .putShort(lows[day]);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof WearableForecast)) {
+            return false;
+        }
+        WearableForecast other = (WearableForecast) o;
+        return isMetric == other.isMetric
+                && firstDate == other.firstDate
+                && Arrays.equals(weatherIds, other.weatherIds)
+                && Arrays.equals(highs, other.highs)
+                && Arrays.equals(lows, other.lows);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = isMetric ? 1 : 0;
+        result = 31 * result + (int) (firstDate ^ (firstDate >>> 32));
+        result = 31 * result + Arrays.hashCode(weatherIds);
+        result = 31 * result + Arrays.hashCode(highs);
+        result = 31 * result + Arrays.hashCode(lows);
+        return result;
+    }
+}
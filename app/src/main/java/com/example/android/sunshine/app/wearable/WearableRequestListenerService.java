@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wearable;
+
+import android.util.Log;
+
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.WearableListenerService;
+
+/**
+ * Answers requests from the watch.  The only one is for the full forecast, which the watch needs
+ * when it missed the payload a delta is based on (or lost its data altogether).
+ */
+public class WearableRequestListenerService extends WearableListenerService {
+    private static final String LOG_TAG = WearableRequestListenerService.class.getSimpleName();
+
+    @Override
+    public void onMessageReceived(MessageEvent messageEvent) {
+        if (UpdateWearableIntentService.RESYNC_PATH.equals(messageEvent.getPath())) {
+            Log.d(LOG_TAG, "Watch " + messageEvent.getSourceNodeId()
+                    + " asked for the full forecast");
+            UpdateWearableIntentService.resync(this);
+        }
+    }
+}
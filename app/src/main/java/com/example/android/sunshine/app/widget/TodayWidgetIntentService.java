@@ -20,35 +20,40 @@ import android.app.IntentService;
 import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
+import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.widget.RemoteViews;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherSnapshotFile;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.ArrayList;
 
 /**
  * IntentService which handles updating all Today widgets with the latest data
+ *
+ * Every widget showing the same layout shows exactly the same thing, so one RemoteViews is built
+ * per layout and pushed to all of those widgets at once.  When the update comes from new data
+ * being synced, widgets whose content didn't actually change aren't pushed at all.
  */
 public class TodayWidgetIntentService extends IntentService {
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
-    private static final int INDEX_MAX_TEMP = 2;
-    private static final int INDEX_MIN_TEMP = 3;
+    private final String LOG_TAG = TodayWidgetIntentService.class.getSimpleName();
+
+    // Remembers what each widget was last given, and how many updates were pushed and skipped
+    private static final String STATE_PREFS = "today_widget_state";
+    private static final String KEY_CONTENT_HASH = "content_hash_";
+    private static final String KEY_PUSHED = "pushed_updates";
+    private static final String KEY_SKIPPED = "skipped_updates";
 
     public TodayWidgetIntentService() {
         super("TodayWidgetIntentService");
@@ -60,37 +65,46 @@ public class TodayWidgetIntentService extends IntentService {
         AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(this);
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
+        if (appWidgetIds.length == 0) {
+            return;
+        }
 
-        // Get today's data from the ContentProvider
+        // Get today's data from the snapshot written after the last sync, without opening
+        // the database
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
+        WeatherSnapshotFile snapshot = WeatherSnapshotFile.openOrBuild(this, location);
+        if (null == snapshot) {
             return;
         }
-        if (!data.moveToFirst()) {
-            data.close();
+        int today = snapshot.getToday();
+        if (today >= snapshot.getDayCount()) {
             return;
         }
 
-        // Extract the weather data from the Cursor
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
+        // Extract the weather data from the snapshot
+        int weatherId = snapshot.getWeatherId(today);
         int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
+        String description = Utility.getStringForWeatherCondition(this, weatherId);
+        double maxTemp = snapshot.getHigh(today);
+        double minTemp = snapshot.getLow(today);
         String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
         String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
-        data.close();
 
-        // Perform this loop procedure for each Today widget
+        // When the widgets were just added, resized or the host asked for an update, it may not
+        // have anything to show, so everything is pushed.  New data only needs to reach the
+        // widgets that would show something different.
+        boolean onlyChanged = SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction());
+        SharedPreferences state = getSharedPreferences(STATE_PREFS, MODE_PRIVATE);
+        SharedPreferences.Editor stateEditor = state.edit();
+
+        // The widgets to push, grouped by the layout that fits them
+        SparseArray<ArrayList<Integer>> widgetsByLayout = new SparseArray<ArrayList<Integer>>();
+        int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
+        int skipped = 0;
         for (int appWidgetId : appWidgetIds) {
             // Find the correct layout based on the widget's width
-            int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId);
-            int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
-            int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
+            int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId, defaultWidth);
             int layoutId;
             if (widgetWidth >= largeWidth) {
                 layoutId = R.layout.widget_today_large;
@@ -99,40 +113,89 @@ public class TodayWidgetIntentService extends IntentService {
             } else {
                 layoutId = R.layout.widget_today_small;
             }
-            RemoteViews views = new RemoteViews(getPackageName(), layoutId);
 
-            // Add the data to the RemoteViews
-            views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
-            // Content Descriptions for RemoteViews were only added in ICS MR1
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
-                setRemoteContentDescription(views, description);
+            int contentHash = (layoutId + "|" + weatherArtResourceId + "|" + description + "|"
+                    + formattedMaxTemperature + "|" + formattedMinTemperature).hashCode();
+            String hashKey = KEY_CONTENT_HASH + appWidgetId;
+            if (onlyChanged && state.contains(hashKey) && state.getInt(hashKey, 0) == contentHash) {
+                skipped++;
+                continue;
+            }
+            stateEditor.putInt(hashKey, contentHash);
+
+            ArrayList<Integer> widgets = widgetsByLayout.get(layoutId);
+            if (null == widgets) {
+                widgets = new ArrayList<Integer>();
+                widgetsByLayout.put(layoutId, widgets);
             }
-            views.setTextViewText(R.id.widget_description, description);
-            views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
-            views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
+            widgets.add(appWidgetId);
+        }
 
-            // Create an Intent to launch MainActivity
+        int pushed = 0;
+        if (widgetsByLayout.size() > 0) {
+            // Create an Intent to launch MainActivity, shared by all of the widgets
             Intent launchIntent = new Intent(this, MainActivity.class);
             PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
-            views.setOnClickPendingIntent(R.id.widget, pendingIntent);
 
-            // Tell the AppWidgetManager to perform an update on the current app widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
+            for (int i = 0; i < widgetsByLayout.size(); i++) {
+                RemoteViews views = new RemoteViews(getPackageName(), widgetsByLayout.keyAt(i));
+
+                // Add the data to the RemoteViews
+                views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+                // Content Descriptions for RemoteViews were only added in ICS MR1
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+                    setRemoteContentDescription(views, description);
+                }
+                views.setTextViewText(R.id.widget_description, description);
+                views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
+                views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
+                views.setOnClickPendingIntent(R.id.widget, pendingIntent);
+
+                // Tell the AppWidgetManager to update every widget using this layout at once
+                ArrayList<Integer> widgets = widgetsByLayout.valueAt(i);
+                int[] ids = new int[widgets.size()];
+                for (int j = 0; j < ids.length; j++) {
+                    ids[j] = widgets.get(j);
+                }
+                appWidgetManager.updateAppWidget(ids, views);
+                pushed += ids.length;
+            }
+        }
+
+        stateEditor.putInt(KEY_PUSHED, state.getInt(KEY_PUSHED, 0) + pushed);
+        stateEditor.putInt(KEY_SKIPPED, state.getInt(KEY_SKIPPED, 0) + skipped);
+        stateEditor.apply();
+        Log.d(LOG_TAG, "Pushed " + pushed + " and skipped " + skipped + " widget updates ("
+                + state.getInt(KEY_PUSHED, 0) + " pushed and " + state.getInt(KEY_SKIPPED, 0)
+                + " skipped in total)");
+    }
+
+    /**
+     * Forgets what the given widgets were showing, once they've been removed.
+     */
+    static void forgetWidgets(Context context, int[] appWidgetIds) {
+        SharedPreferences.Editor editor =
+                context.getSharedPreferences(STATE_PREFS, MODE_PRIVATE).edit();
+        for (int appWidgetId : appWidgetIds) {
+            editor.remove(KEY_CONTENT_HASH + appWidgetId);
         }
+        editor.apply();
     }
 
-    private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId) {
+    private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId,
+                               int defaultWidth) {
         // Prior to Jelly Bean, widgets were always their default size
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
-            return getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+            return defaultWidth;
         }
         // For Jelly Bean and higher devices, widgets can be resized - the current size can be
         // retrieved from the newly added App Widget Options
-        return getWidgetWidthFromOptions(appWidgetManager, appWidgetId);
+        return getWidgetWidthFromOptions(appWidgetManager, appWidgetId, defaultWidth);
     }
 
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-    private int getWidgetWidthFromOptions(AppWidgetManager appWidgetManager, int appWidgetId) {
+    private int getWidgetWidthFromOptions(AppWidgetManager appWidgetManager, int appWidgetId,
+                                          int defaultWidth) {
         Bundle options = appWidgetManager.getAppWidgetOptions(appWidgetId);
         if (options.containsKey(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH)) {
             int minWidthDp = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH);
@@ -141,7 +204,7 @@ public class TodayWidgetIntentService extends IntentService {
             return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, minWidthDp,
                     displayMetrics);
         }
-        return  getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        return defaultWidth;
     }
 
     @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
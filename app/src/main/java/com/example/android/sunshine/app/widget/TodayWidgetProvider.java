@@ -47,7 +47,14 @@ public class TodayWidgetProvider extends AppWidgetProvider {
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
-            context.startService(new Intent(context, TodayWidgetIntentService.class));
+            // Lets the service skip widgets whose content didn't change
+            context.startService(new Intent(context, TodayWidgetIntentService.class)
+                    .setAction(SunshineSyncAdapter.ACTION_DATA_UPDATED));
         }
     }
+
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        TodayWidgetIntentService.forgetWidgets(context, appWidgetIds);
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherSnapshotFile;
+
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Bounded cache of remote weather art, decoded at the size of a widget's list icon.  The art is
+ * fetched for every condition of a forecast at once with {@link #prefetch}, so binding a row is
+ * only a lookup.
+ */
+class WidgetArtCache {
+    private static final String LOG_TAG = WidgetArtCache.class.getSimpleName();
+
+    // Around ten distinct conditions are shown at a time; even at xxxhdpi this holds them all
+    private static final int MAX_BYTES = 2 * 1024 * 1024;
+    // Per icon; the widget is bound with the local icons for whatever isn't in by then
+    private static final long FETCH_TIMEOUT_SECONDS = 10;
+
+    private static WidgetArtCache sInstance;
+
+    private final LruCache<String, Bitmap> mBitmaps = new LruCache<String, Bitmap>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getRowBytes() * bitmap.getHeight();
+        }
+    };
+
+    static synchronized WidgetArtCache getInstance() {
+        if (null == sInstance) {
+            sInstance = new WidgetArtCache();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Fetches and decodes the art of every condition in the forecast that isn't cached yet.
+     * This blocks on the network and the decoder, so it must not be called on the main thread.
+     * Art that can't be fetched is only tried once per call, however many days show it.
+     *
+     * @param firstDay the first day of the forecast that is shown
+     * @param size the width and height of the icon, in pixels
+     */
+    void prefetch(Context context, WeatherSnapshotFile forecast, int firstDay, int size) {
+        if (Utility.usingLocalGraphics(context)) {
+            return;
+        }
+        HashSet<String> failed = new HashSet<String>();
+        for (int day = firstDay; day < forecast.getDayCount(); day++) {
+            String url = Utility.getArtUrlForWeatherCondition(context, forecast.getWeatherId(day));
+            String key = getKey(url, size);
+            if (null == url || failed.contains(key) || null != mBitmaps.get(key)) {
+                continue;
+            }
+            FutureTarget<Bitmap> target = Glide.with(context)
+                    .load(url)
+                    .asBitmap()
+                    .fitCenter()
+                    .into(size, size);
+            try {
+                // Glide may reuse the bitmap once the request is cleared, so keep our own copy
+                Bitmap bitmap = target.get(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                Bitmap.Config config = null != bitmap.getConfig()
+                        ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+                mBitmaps.put(key, bitmap.copy(config, false));
+            } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                // The row falls back to the local icon
+                Log.e(LOG_TAG, "Error retrieving icon from " + url, e);
+                failed.add(key);
+            } finally {
+                Glide.clear(target);
+            }
+        }
+    }
+
+    /**
+     * @return the art for the condition, or null if it isn't cached, in which case the local
+     *         icon should be shown instead
+     */
+    Bitmap get(Context context, int weatherId, int size) {
+        String url = Utility.getArtUrlForWeatherCondition(context, weatherId);
+        return null == url ? null : mBitmaps.get(getKey(url, size));
+    }
+
+    private static String getKey(String url, int size) {
+        return url + "@" + size;
+    }
+}
@@ -0,0 +1,81 @@
+#!/bin/sh
+#
+# Copyright (C) 2015 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# Measures Sunshine's cold start on the connected device.  For each run the app is force
+# stopped and relaunched, and two numbers are read back from the ActivityManager:
+#
+#   first frame  - "TotalTime" from am start -W (process start to first frame)
+#   first row    - "Fully drawn", reported by ForecastFragment once the first forecast
+#                  rows are about to be drawn (requires KitKat or later)
+#
+# With --no-snapshot the persisted forecast list snapshot is deleted before every run, so the
+# first rows have to wait for the database; compare against a normal run to see what the
+# snapshot saves.  This uses run-as, so it needs a debuggable build.
+#
+# Usage: tools/measure_cold_start.sh [--no-snapshot] [runs]
+
+PACKAGE=com.example.android.sunshine.app
+ACTIVITY=$PACKAGE/.MainActivity
+SNAPSHOT=files/forecast_list.snapshot
+
+NO_SNAPSHOT=0
+if [ "$1" = "--no-snapshot" ]; then
+    NO_SNAPSHOT=1
+    shift
+fi
+RUNS=${1:-10}
+
+# Converts the "+1s234ms" / "+834ms" notation used by the ActivityManager to milliseconds
+to_millis() {
+    echo "$1" | sed -e 's/^+//' | awk '{
+        ms = 0
+        if (match($0, /[0-9]+s/)) ms += substr($0, RSTART, RLENGTH - 1) * 1000
+        if (match($0, /[0-9]+ms/)) ms += substr($0, RSTART, RLENGTH - 2)
+        print ms
+    }'
+}
+
+total_frame=0
+total_row=0
+rows=0
+i=1
+while [ $i -le $RUNS ]; do
+    adb shell am force-stop $PACKAGE
+    if [ $NO_SNAPSHOT -eq 1 ]; then
+        adb shell run-as $PACKAGE rm -f $SNAPSHOT $SNAPSHOT.bak
+    fi
+    adb logcat -c
+    frame=$(adb shell am start -W -n $ACTIVITY | tr -d '\r' | awk '/TotalTime/ { print $2 }')
+    # Give the forecast time to load before reading the log
+    sleep 5
+    drawn=$(adb logcat -d -s ActivityManager:I | tr -d '\r' \
+            | sed -n "s|.*Fully drawn $ACTIVITY: \(+[0-9a-z]*\).*|\1|p" | head -n 1)
+    if [ -z "$drawn" ]; then
+        echo "run $i: first frame ${frame}ms, first row not reported"
+    else
+        row=$(to_millis "$drawn")
+        echo "run $i: first frame ${frame}ms, first row ${row}ms"
+        total_row=$((total_row + row))
+        rows=$((rows + 1))
+    fi
+    total_frame=$((total_frame + frame))
+    i=$((i + 1))
+done
+
+echo "average over $RUNS runs: first frame $((total_frame / RUNS))ms"
+if [ $rows -gt 0 ]; then
+    echo "average over $rows runs: first row $((total_row / rows))ms"
+fi
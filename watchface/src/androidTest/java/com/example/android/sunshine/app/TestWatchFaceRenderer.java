@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+/*
+    The watch face is drawn every second, so drawing must not allocate once the date has been
+    formatted for the day and the layers have been rendered.
+ */
+public class TestWatchFaceRenderer extends AndroidTestCase {
+
+    private static final int SIZE = 320;
+    private static final int FRAMES = 120;
+
+    private WatchFaceRenderer mRenderer;
+    private Canvas mCanvas;
+    private Rect mBounds;
+    private Time mTime;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRenderer = new WatchFaceRenderer(mContext);
+        mRenderer.setRound(true);
+        mRenderer.setWeather("21°", "12°",
+                Bitmap.createBitmap(80, 80, Bitmap.Config.ARGB_8888));
+        mCanvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        mBounds = new Rect(0, 0, SIZE, SIZE);
+        mTime = new Time();
+        mTime.set(0, 59, 9, 1, 0, 2016);
+    }
+
+    public void testInteractiveDrawDoesNotAllocate() {
+        assertDrawDoesNotAllocate(false);
+    }
+
+    public void testAmbientDrawDoesNotAllocate() {
+        mRenderer.setAmbient(true, true);
+        assertDrawDoesNotAllocate(true);
+    }
+
+    private void assertDrawDoesNotAllocate(boolean ambient) {
+        // The first frame formats the date and renders the layers
+        mRenderer.draw(mCanvas, mBounds, mTime);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < FRAMES; i++) {
+                // Tick like the watch face does, so the time text is rewritten
+                if (ambient) {
+                    mTime.minute = (mTime.minute + 1) % 60;
+                } else {
+                    mTime.second = (mTime.second + 1) % 60;
+                }
+                mRenderer.draw(mCanvas, mBounds, mTime);
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        assertEquals("Error: Drawing " + FRAMES + " frames allocated", 0,
+                Debug.getThreadAllocCount());
+    }
+}
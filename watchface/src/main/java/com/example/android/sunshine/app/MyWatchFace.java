@@ -20,18 +20,12 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Typeface;
-import android.os.AsyncTask;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.text.format.Time;
@@ -39,17 +33,6 @@ import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.DataEvent;
-import com.google.android.gms.wearable.DataEventBuffer;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.DataMapItem;
-import com.google.android.gms.wearable.Wearable;
-
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
@@ -66,9 +49,6 @@ public class MyWatchFace extends CanvasWatchFaceService {
 
     private static final String TAG = MyWatchFace.class.getSimpleName();
 
-    private static final Typeface NORMAL_TYPEFACE =
-            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
-
     /**
      * Update rate in milliseconds for interactive mode. We update once a second since seconds are
      * displayed in interactive mode.
@@ -80,6 +60,11 @@ public class MyWatchFace extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * Width and height of the weather icon, in pixels.
+     */
+    private static final int ICON_SIZE_PX = 80;
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -106,18 +91,13 @@ public class MyWatchFace extends CanvasWatchFaceService {
     }
 
     private class Engine extends CanvasWatchFaceService.Engine implements
-            GoogleApiClient.ConnectionCallbacks,
-            GoogleApiClient.OnConnectionFailedListener,
-            DataApi.DataListener {
+            WeatherStore.Listener,
+            WatchIconLoader.Callback {
 
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
-        Paint mBackgroundPaint;
-        Paint mTextPaint;
-        Paint mDatePaint;
-        Paint mIconPaint;
-        Paint mHighPaint;
-        Paint mLowPaint;
+        WatchFaceRenderer mRenderer;
+        WatchIconLoader mIconLoader;
         boolean mAmbient;
         Time mTime;
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
@@ -125,25 +105,24 @@ public class MyWatchFace extends CanvasWatchFaceService {
             public void onReceive(Context context, Intent intent) {
                 mTime.clear(intent.getStringExtra("time-zone"));
                 mTime.setToNow();
+                mRenderer.invalidateDate();
             }
         };
 
-        float mXOffset;
-        float mYOffset;
-
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
          */
         boolean mLowBitAmbient;
 
-        GoogleApiClient mGoogleApiClient = new GoogleApiClient.Builder(MyWatchFace.this)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .addApi(Wearable.API)
-                .build();
-
+        WeatherStore mWeatherStore;
+        WearConnectionManager mConnections;
+        WatchForecast mForecast;
+        // When we last became visible without a forecast to show, to measure how long it takes
+        // to get one; 0 when not waiting
+        long mWokeAt;
         Bitmap mIcon;
+        int mIconId = -1;
         String mHigh = Utility.HIGH_DEFAULT_VALUE;
         String mLow = Utility.LOW_DEFAULT_VALUE;
 
@@ -157,26 +136,14 @@ public class MyWatchFace extends CanvasWatchFaceService {
                     .setShowSystemUiTime(false)
                     .setAcceptsTapEvents(true)
                     .build());
-            Resources resources = MyWatchFace.this.getResources();
-            mYOffset = resources.getDimension(R.dimen.digital_y_offset_round);
+            mRenderer = new WatchFaceRenderer(MyWatchFace.this);
+            mIconLoader = new WatchIconLoader(getResources(), ICON_SIZE_PX);
 
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(resources.getColor(R.color.background));
-
-            mTextPaint = new Paint();
-            mTextPaint = createTextPaint(resources.getColor(R.color.digital_text));
-
-            mDatePaint = new Paint();
-            mDatePaint = createTextPaint(resources.getColor(R.color.transparent_text));
-
-            mIconPaint = new Paint();
-            mIconPaint.setColor(getResources().getColor(R.color.white));
-
-            mHighPaint = new Paint();
-            mHighPaint = createTextPaint(resources.getColor(R.color.digital_text));
-
-            mLowPaint = new Paint();
-            mLowPaint = createTextPaint(resources.getColor(R.color.transparent_text));
+            // The store tells us once it has read the forecast, if it hasn't yet
+            mWeatherStore = WeatherStore.getInstance(MyWatchFace.this);
+            mWeatherStore.addListener(this);
+            mForecast = mWeatherStore.getForecast();
+            mConnections = WearConnectionManager.getInstance(MyWatchFace.this);
 
             mTime = new Time();
         }
@@ -184,17 +151,11 @@ public class MyWatchFace extends CanvasWatchFaceService {
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mWeatherStore.removeListener(this);
+            mIconLoader.quit();
             super.onDestroy();
         }
 
-        private Paint createTextPaint(int textColor) {
-            Paint paint = new Paint();
-            paint.setColor(textColor);
-            paint.setTypeface(NORMAL_TYPEFACE);
-            paint.setAntiAlias(true);
-            return paint;
-        }
-
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
@@ -202,18 +163,22 @@ public class MyWatchFace extends CanvasWatchFaceService {
             if (visible) {
                 registerReceiver();
 
-                mGoogleApiClient.connect();
+                if (null == mForecast) {
+                    mWokeAt = SystemClock.elapsedRealtime();
+                } else {
+                    logTimeToWeather(0);
+                }
 
                 // Update time zone in case it changed while we weren't visible.
                 mTime.clear(TimeZone.getDefault().getID());
                 mTime.setToNow();
+                mRenderer.invalidateDate();
+
+                // The day may have changed too
+                updateUiForForecast();
             } else {
                 unregisterReceiver();
-
-                if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-                    Wearable.DataApi.removeListener(mGoogleApiClient, this);
-                    mGoogleApiClient.disconnect();
-                }
+                mWokeAt = 0;
             }
 
             // Whether the timer should be running depends on whether we're visible (as well as
@@ -242,32 +207,7 @@ public class MyWatchFace extends CanvasWatchFaceService {
         public void onApplyWindowInsets(WindowInsets insets) {
             super.onApplyWindowInsets(insets);
 
-            // Load resources that have alternate values for round watches.
-            Resources resources = MyWatchFace.this.getResources();
-            boolean isRound = insets.isRound();
-            mXOffset = resources.getDimension(isRound
-                    ? R.dimen.digital_x_offset_round : R.dimen.digital_x_offset);
-            mYOffset = resources.getDimension(isRound
-                    ? R.dimen.digital_y_offset_round : R.dimen.digital_y_offset);
-            float textSize = resources.getDimension(isRound
-                    ? R.dimen.digital_text_size_round : R.dimen.digital_text_size);
-
-            float dateSize = resources.getDimension(isRound
-                    ? R.dimen.digital_date_size_round : R.dimen.digital_date_size);
-
-            float tempSize = resources.getDimension(isRound
-                    ? R.dimen.digital_temp_size_round : R.dimen.digital_temp_size);
-
-            mTextPaint.setTextSize(textSize);
-            mDatePaint.setTextSize(dateSize);
-
-            mHighPaint.setTextSize(tempSize);
-            mLowPaint.setTextSize(tempSize);
-
-            mTextPaint.setTextAlign(Paint.Align.CENTER);
-            mDatePaint.setTextAlign(Paint.Align.CENTER);
-            mHighPaint.setTextAlign(Paint.Align.CENTER);
-            mLowPaint.setTextAlign(Paint.Align.CENTER);
+            mRenderer.setRound(insets.isRound());
         }
 
         @Override
@@ -287,9 +227,7 @@ public class MyWatchFace extends CanvasWatchFaceService {
             super.onAmbientModeChanged(inAmbientMode);
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
-                if (mLowBitAmbient) {
-                    mTextPaint.setAntiAlias(!inAmbientMode);
-                }
+                mRenderer.setAmbient(inAmbientMode, mLowBitAmbient);
                 invalidate();
             }
 
@@ -298,204 +236,78 @@ public class MyWatchFace extends CanvasWatchFaceService {
             updateTimer();
         }
 
-        private void updateWeatherDataItemOnStartup() {
-            Utility.fetchWeatherDataMap(mGoogleApiClient,
-                    new Utility.FetchWeatherDataMapCallback() {
-                        @Override
-                        public void onWeatherDataMapFetched(DataMap startupWeather) {
-                            // If the DataItem hasn't been created yet or some keys are missing,
-                            // use the default values.
-                            setDefaultValuesForMissingWeatherKeys(startupWeather);
-                            Utility.putWeatherDataItem(mGoogleApiClient, startupWeather);
-
-                            updateUiForWeatherDataMap(startupWeather);
-                        }
-                    }
-            );
-        }
-
-        private void setDefaultValuesForMissingWeatherKeys(DataMap weather) {
-            addStringKeyIfMissing(weather, Utility.HIGH,
-                    Utility.HIGH_DEFAULT_VALUE);
-            addStringKeyIfMissing(weather, Utility.LOW,
-                    Utility.LOW_DEFAULT_VALUE);
-            addIconIfMissing(weather, Utility.ICON);
-        }
-
-        private void addStringKeyIfMissing(DataMap weather, String key, String temp) {
-            if (!weather.containsKey(key)) {
-                weather.putString(key, temp);
-            }
-        }
-
-        private void addIconIfMissing(DataMap weather, String key) {
-            if (!weather.containsKey(key)) {
-                weather.putAsset(key, null);
-            }
-        }
-
-        private void updateUiForWeatherDataMap(final DataMap weather) {
-            boolean uiUpdated = false;
-            for (String weatherKey : weather.keySet()) {
-                if (!weather.containsKey(weatherKey)) {
-                    continue;
-                }
-                if (weatherKey.equals(Utility.HIGH) || weatherKey.equals(Utility.LOW)) {
-                    String temp = weather.getString(weatherKey);
-                    if (updateUiForKey(weatherKey, temp)) {
-                        uiUpdated = true;
-                    }
-                } else {
-                    Asset asset = weather.getAsset(weatherKey);
-                    if (updateIcon(weatherKey, asset)) {
-                        uiUpdated = true;
-                    }
-                }
-
-            }
-            if (uiUpdated) {
-                invalidate();
-            }
-        }
-
-        @Override
-        public void onDataChanged(DataEventBuffer dataEventBuffer) {
-            for (DataEvent dataEvent : dataEventBuffer) {
-                if (dataEvent.getType() == DataEvent.TYPE_CHANGED) {
-                    DataMap weather = DataMapItem.fromDataItem(dataEvent.getDataItem()).getDataMap();
-                    String path = dataEvent.getDataItem().getUri().getPath();
-                    if (path.equals(Utility.PATH)) {
-                        updateUiForWeatherDataMap(weather);
-                    }
-                }
-
+        @Override  // WeatherStore.Listener
+        public void onForecastChanged(WatchForecast forecast) {
+            mForecast = forecast;
+            if (mWokeAt != 0) {
+                logTimeToWeather(SystemClock.elapsedRealtime() - mWokeAt);
+                mWokeAt = 0;
             }
+            updateUiForForecast();
         }
 
         /**
-         * Updates high and low temperatures to the given {@code weatherKey}. Does nothing if
-         * {@code weatherKey} isn't recognized.
-         *
-         * @return whether UI has been updated
+         * @param millis how long it took to have the weather to show after becoming visible
          */
-        private boolean updateUiForKey(String weatherKey, String temp) {
-            if (weatherKey.equals(Utility.HIGH)) {
-                mHigh = temp;
-            } else if (weatherKey.equals(Utility.LOW)) {
-                mLow = temp;
-            } else {
-                Log.w(TAG, "Ignoring unknown weather key: " + weatherKey);
-                return false;
+        private void logTimeToWeather(long millis) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Weather shown " + millis + "ms after waking, "
+                        + mConnections.getConnectCount() + " connections so far");
             }
-            return true;
         }
 
         /**
-         * Updates weather icon and resizes it.
+         * Shows today's weather from {@link #mForecast}, or nothing if the forecast doesn't cover
+         * today.
          */
-        private boolean updateIcon(String iconKey, Asset asset) {
-            if (iconKey.equals(Utility.ICON) && asset != null) {
-                new LoadBitmapAsyncTask() {
-                    @Override
-                    protected void onPostExecute(Bitmap bitmap) {
-                        mIcon = Bitmap.createScaledBitmap(bitmap, 80, 80, false);
-                    }
-                }.execute(asset);
+        private void updateUiForForecast() {
+            if (null == mForecast) {
+                return;
+            }
+            int today = mForecast.getDay(System.currentTimeMillis());
+            if (today < 0) {
+                mHigh = Utility.HIGH_DEFAULT_VALUE;
+                mLow = Utility.LOW_DEFAULT_VALUE;
+                updateIcon(-1);
             } else {
-                return false;
+                mHigh = mForecast.getHigh(MyWatchFace.this, today);
+                mLow = mForecast.getLow(MyWatchFace.this, today);
+                updateIcon(Utility.getIconResourceForWeatherCondition(
+                        mForecast.getWeatherId(today)));
             }
-            return true;
+            mRenderer.setWeather(mHigh, mLow, mIcon);
+            invalidate();
         }
 
-        /*
-     * Extracts {@link android.graphics.Bitmap} data from the
-     * {@link com.google.android.gms.wearable.Asset}
-     */
-        private class LoadBitmapAsyncTask extends AsyncTask<Asset, Void, Bitmap> {
-
-            @Override
-            protected Bitmap doInBackground(Asset... params) {
-
-                if(params.length > 0) {
-
-                    Asset asset = params[0];
-
-                    if (asset == null) {
-                        Log.w(TAG, "Requested an unknown Asset.");
-                        return null;
-                    }
-                    return loadBitmapFromAsset(asset);
-
-                } else {
-                    Log.e(TAG, "Asset must be non-null");
-                    return null;
-                }
-            }
+        @Override  // WatchIconLoader.Callback
+        public void onIconLoaded(int iconId, Bitmap icon) {
+            mIcon = icon;
+            mRenderer.setWeather(mHigh, mLow, mIcon);
+            invalidate();
         }
 
-        private Bitmap loadBitmapFromAsset(Asset asset) {
-            if (asset == null) {
-                Log.d(TAG, "Cannot load bitmap. Asset is null");
-                return null;
+        /**
+         * Loads and resizes the icon from our resources, if it isn't the one already shown.
+         *
+         * @param iconId the icon's resource id, or -1 for none
+         */
+        private void updateIcon(int iconId) {
+            if (iconId == mIconId) {
+                return;
             }
-            ConnectionResult result = mGoogleApiClient.blockingConnect(30, TimeUnit.SECONDS);
-            if (!result.isSuccess()) {
-                return null;
+            mIconId = iconId;
+            if (iconId == -1) {
+                mIconLoader.cancel();
+                mIcon = null;
+                return;
             }
-            // convert asset into a file descriptor and block until it's ready
-            InputStream assetInputStream = Wearable.DataApi.getFdForAsset(mGoogleApiClient, asset).await().getInputStream();
-
-            return BitmapFactory.decodeStream(assetInputStream);
+            mIconLoader.load(iconId, this);
         }
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-            } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-            }
-
-            float centerWidth = canvas.getWidth() / 2;
-            float centerHeight = canvas.getHeight() / 2;
-            float separatorXStart = centerWidth - 25;
-            float separatorXStop = centerWidth + 25;
-            float separatorY = centerHeight + 20;
-
-            Paint linePaint = new Paint();
-            linePaint.setColor(getResources().getColor(R.color.transparent_text));
-            linePaint.setStrokeWidth(1);
-
-            canvas.drawLine(separatorXStart, separatorY, separatorXStop, separatorY, linePaint);
-
-            // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
             mTime.setToNow();
-            String text = mAmbient
-                    ? String.format("%d:%02d", mTime.hour, mTime.minute)
-                    : String.format("%d:%02d:%02d", mTime.hour, mTime.minute, mTime.second);
-            canvas.drawText(text, centerWidth, mYOffset, mTextPaint);
-
-            // Draw current date
-            canvas.drawText(Utility.getCurrentDateString(), centerWidth, mYOffset + 40, mDatePaint);
-
-            float iconX = canvas.getWidth() / 10;
-            float highX = centerWidth;
-            float lowX = highX + (centerWidth / 2);
-            float tempY = centerHeight + (centerHeight / 2);
-            float iconY = centerHeight + (centerHeight / 6);
-
-            canvas.drawText(mHigh, highX, tempY, mHighPaint);
-            canvas.drawText(mLow, lowX, tempY, mLowPaint);
-
-            // Draw current weather icon
-            if (!isInAmbientMode()) {
-                if (mIcon != null) {
-                    canvas.drawBitmap(mIcon, iconX, iconY, mIconPaint);
-                }
-            }
-
-
+            mRenderer.draw(canvas, bounds, mTime);
         }
 
         /**
@@ -529,28 +341,5 @@ public class MyWatchFace extends CanvasWatchFaceService {
                 mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
             }
         }
-
-        @Override  // GoogleApiClient.ConnectionCallbacks
-        public void onConnected(Bundle connectionHint) {
-            if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "onConnected: " + connectionHint);
-            }
-            Wearable.DataApi.addListener(mGoogleApiClient, Engine.this);
-            updateWeatherDataItemOnStartup();
-        }
-
-        @Override  // GoogleApiClient.ConnectionCallbacks
-        public void onConnectionSuspended(int cause) {
-            if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "onConnectionSuspended: " + cause);
-            }
-        }
-
-        @Override  // GoogleApiClient.OnConnectionFailedListener
-        public void onConnectionFailed(ConnectionResult result) {
-            if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "onConnectionFailed: " + result);
-            }
-        }
     }
 }
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.text.format.Time;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Draws {@link MyWatchFace}.  Drawing runs every second in interactive mode, so it doesn't
+ * allocate: the paints are created once, the time is written into a reused char buffer only when
+ * the shown minute or second changes, and the date is formatted once a day.
+ *
+ * Only the time changes from one frame to the next, so everything else (background, separator,
+ * date and weather) is pre-rendered into a layer, one for interactive and one for ambient mode,
+ * that is redrawn when the weather or the date changes.  A frame is that layer and the time on
+ * top of it.  Debug builds show the average time it takes to draw a frame.
+ */
+class WatchFaceRenderer {
+
+    private static final Typeface NORMAL_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
+
+    private final Context mContext;
+
+    private final Paint mBackgroundPaint;
+    private final Paint mLinePaint;
+    private final Paint mTextPaint;
+    private final Paint mDatePaint;
+    private final Paint mIconPaint;
+    private final Paint mHighPaint;
+    private final Paint mLowPaint;
+
+    private float mYOffset;
+    private boolean mAmbient;
+    private boolean mLowBitAmbient;
+
+    // Everything but the time, for each mode, redrawn only when it is invalidated
+    private final Canvas mLayerCanvas = new Canvas();
+    private Bitmap mInteractiveLayer;
+    private Bitmap mAmbientLayer;
+    private boolean mInteractiveLayerValid;
+    private boolean mAmbientLayerValid;
+
+    // "HH:MM:SS" at most; mTimeLength characters are in use
+    private final char[] mTimeText = new char[8];
+    private int mTimeLength;
+    // What mTimeText shows, to only rewrite it when that changes
+    private int mTimeHour = -1;
+    private int mTimeMinute = -1;
+    private int mTimeSecond = -1;
+    private boolean mTimeShowsSeconds;
+
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat(Utility.WATCH_DATE_FORMAT);
+    private final Date mDate = new Date();
+    private String mDateText;
+    // The date text is valid until then, which is the next midnight
+    private long mDateExpiresAt;
+
+    // Debug builds only; "NNNNNNus"
+    private final Paint mFrameTimePaint;
+    private final char[] mFrameTimeText = new char[8];
+    private long mAverageFrameNanos;
+
+    private String mHigh = Utility.HIGH_DEFAULT_VALUE;
+    private String mLow = Utility.LOW_DEFAULT_VALUE;
+    private Bitmap mIcon;
+
+    WatchFaceRenderer(Context context) {
+        mContext = context;
+        Resources resources = context.getResources();
+        mYOffset = resources.getDimension(R.dimen.digital_y_offset_round);
+
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(resources.getColor(R.color.background));
+
+        mLinePaint = new Paint();
+        mLinePaint.setColor(resources.getColor(R.color.transparent_text));
+        mLinePaint.setStrokeWidth(1);
+
+        mTextPaint = createTextPaint(resources.getColor(R.color.digital_text));
+        mDatePaint = createTextPaint(resources.getColor(R.color.transparent_text));
+
+        mIconPaint = new Paint();
+        mIconPaint.setColor(resources.getColor(R.color.white));
+
+        mHighPaint = createTextPaint(resources.getColor(R.color.digital_text));
+        mLowPaint = createTextPaint(resources.getColor(R.color.transparent_text));
+
+        mFrameTimePaint = createTextPaint(resources.getColor(R.color.digital_text));
+        mFrameTimePaint.setTextSize(resources.getDimension(R.dimen.digital_date_size));
+    }
+
+    private static Paint createTextPaint(int textColor) {
+        Paint paint = new Paint();
+        paint.setColor(textColor);
+        paint.setTypeface(NORMAL_TYPEFACE);
+        paint.setAntiAlias(true);
+        paint.setTextAlign(Paint.Align.CENTER);
+        return paint;
+    }
+
+    /**
+     * Loads the sizes, which have alternate values for round watches.
+     */
+    void setRound(boolean isRound) {
+        Resources resources = mContext.getResources();
+        mYOffset = resources.getDimension(isRound
+                ? R.dimen.digital_y_offset_round : R.dimen.digital_y_offset);
+        float textSize = resources.getDimension(isRound
+                ? R.dimen.digital_text_size_round : R.dimen.digital_text_size);
+        float dateSize = resources.getDimension(isRound
+                ? R.dimen.digital_date_size_round : R.dimen.digital_date_size);
+        float tempSize = resources.getDimension(isRound
+                ? R.dimen.digital_temp_size_round : R.dimen.digital_temp_size);
+
+        mTextPaint.setTextSize(textSize);
+        mDatePaint.setTextSize(dateSize);
+        mHighPaint.setTextSize(tempSize);
+        mLowPaint.setTextSize(tempSize);
+        invalidateLayers();
+    }
+
+    /**
+     * @param lowBitAmbient whether the display supports fewer bits for each color in ambient
+     *                      mode, in which case text is drawn without anti-aliasing
+     */
+    void setAmbient(boolean ambient, boolean lowBitAmbient) {
+        mAmbient = ambient;
+        if (lowBitAmbient != mLowBitAmbient) {
+            mLowBitAmbient = lowBitAmbient;
+            mAmbientLayerValid = false;
+        }
+        if (lowBitAmbient) {
+            mTextPaint.setAntiAlias(!ambient);
+        }
+    }
+
+    void setWeather(String high, String low, Bitmap icon) {
+        mHigh = high;
+        mLow = low;
+        mIcon = icon;
+        invalidateLayers();
+    }
+
+    /**
+     * Makes the date be formatted again on the next draw, for instance when the time zone
+     * changed.
+     */
+    void invalidateDate() {
+        mDateFormat.setTimeZone(TimeZone.getDefault());
+        mDateExpiresAt = 0;
+    }
+
+    private void invalidateLayers() {
+        mInteractiveLayerValid = false;
+        mAmbientLayerValid = false;
+    }
+
+    /**
+     * Draws the layer of the current mode, then the time on top of it.
+     *
+     * @param time the time to show, already set to now
+     */
+    void draw(Canvas canvas, Rect bounds, Time time) {
+        long start = System.nanoTime();
+
+        if (System.currentTimeMillis() >= mDateExpiresAt) {
+            updateDateText();
+        }
+        int width = bounds.width();
+        int height = bounds.height();
+        if (null == mInteractiveLayer || mInteractiveLayer.getWidth() != width
+                || mInteractiveLayer.getHeight() != height) {
+            mInteractiveLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mAmbientLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            invalidateLayers();
+        }
+        if (mAmbient) {
+            if (!mAmbientLayerValid) {
+                drawLayer(mAmbientLayer, true);
+                mAmbientLayerValid = true;
+            }
+            canvas.drawBitmap(mAmbientLayer, bounds.left, bounds.top, null);
+        } else {
+            if (!mInteractiveLayerValid) {
+                drawLayer(mInteractiveLayer, false);
+                mInteractiveLayerValid = true;
+            }
+            canvas.drawBitmap(mInteractiveLayer, bounds.left, bounds.top, null);
+        }
+
+        // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
+        updateTimeText(time.hour, time.minute, time.second, !mAmbient);
+        canvas.drawText(mTimeText, 0, mTimeLength, bounds.left + width / 2,
+                bounds.top + mYOffset, mTextPaint);
+
+        if (BuildConfig.DEBUG) {
+            drawFrameTime(canvas, bounds, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Draws everything but the time, which only changes with the weather or the date.
+     */
+    private void drawLayer(Bitmap layer, boolean ambient) {
+        Canvas canvas = mLayerCanvas;
+        canvas.setBitmap(layer);
+
+        // Draw the background.
+        if (ambient) {
+            canvas.drawColor(Color.BLACK);
+        } else {
+            canvas.drawRect(0, 0, layer.getWidth(), layer.getHeight(), mBackgroundPaint);
+        }
+
+        boolean antiAlias = !ambient || !mLowBitAmbient;
+        mDatePaint.setAntiAlias(antiAlias);
+        mHighPaint.setAntiAlias(antiAlias);
+        mLowPaint.setAntiAlias(antiAlias);
+
+        float centerWidth = layer.getWidth() / 2;
+        float centerHeight = layer.getHeight() / 2;
+        float separatorXStart = centerWidth - 25;
+        float separatorXStop = centerWidth + 25;
+        float separatorY = centerHeight + 20;
+
+        canvas.drawLine(separatorXStart, separatorY, separatorXStop, separatorY, mLinePaint);
+
+        // Draw current date
+        canvas.drawText(mDateText, centerWidth, mYOffset + 40, mDatePaint);
+
+        float iconX = layer.getWidth() / 10;
+        float highX = centerWidth;
+        float lowX = highX + (centerWidth / 2);
+        float tempY = centerHeight + (centerHeight / 2);
+        float iconY = centerHeight + (centerHeight / 6);
+
+        canvas.drawText(mHigh, highX, tempY, mHighPaint);
+        canvas.drawText(mLow, lowX, tempY, mLowPaint);
+
+        // Draw current weather icon
+        if (!ambient && mIcon != null) {
+            canvas.drawBitmap(mIcon, iconX, iconY, mIconPaint);
+        }
+        canvas.setBitmap(null);
+    }
+
+    /**
+     * Shows how long drawing takes on average, in microseconds, at the bottom of the face.
+     */
+    private void drawFrameTime(Canvas canvas, Rect bounds, long frameNanos) {
+        mAverageFrameNanos = 0 == mAverageFrameNanos
+                ? frameNanos : (mAverageFrameNanos * 7 + frameNanos) / 8;
+        long micros = mAverageFrameNanos / 1000;
+        int at = mFrameTimeText.length;
+        mFrameTimeText[--at] = 's';
+        mFrameTimeText[--at] = 'u';
+        do {
+            mFrameTimeText[--at] = (char) ('0' + micros % 10);
+            micros /= 10;
+        } while (micros > 0 && at > 0);
+        canvas.drawText(mFrameTimeText, at, mFrameTimeText.length - at,
+                bounds.left + bounds.width() / 2, bounds.bottom - mFrameTimePaint.getTextSize(),
+                mFrameTimePaint);
+    }
+
+    private void updateTimeText(int hour, int minute, int second, boolean showSeconds) {
+        if (hour == mTimeHour && minute == mTimeMinute && showSeconds == mTimeShowsSeconds
+                && (!showSeconds || second == mTimeSecond)) {
+            return;
+        }
+        mTimeHour = hour;
+        mTimeMinute = minute;
+        mTimeSecond = second;
+        mTimeShowsSeconds = showSeconds;
+
+        int length = 0;
+        if (hour >= 10) {
+            mTimeText[length++] = (char) ('0' + hour / 10);
+        }
+        mTimeText[length++] = (char) ('0' + hour % 10);
+        length = putTwoDigits(':', minute, length);
+        if (showSeconds) {
+            length = putTwoDigits(':', second, length);
+        }
+        mTimeLength = length;
+    }
+
+    private int putTwoDigits(char separator, int value, int at) {
+        mTimeText[at++] = separator;
+        mTimeText[at++] = (char) ('0' + value / 10);
+        mTimeText[at++] = (char) ('0' + value % 10);
+        return at;
+    }
+
+    private void updateDateText() {
+        long now = System.currentTimeMillis();
+        mDate.setTime(now);
+        mDateText = mDateFormat.format(mDate).toUpperCase();
+
+        Calendar midnight = Calendar.getInstance();
+        midnight.setTimeInMillis(now);
+        midnight.set(Calendar.HOUR_OF_DAY, 0);
+        midnight.set(Calendar.MINUTE, 0);
+        midnight.set(Calendar.SECOND, 0);
+        midnight.set(Calendar.MILLISECOND, 0);
+        midnight.add(Calendar.DAY_OF_MONTH, 1);
+        mDateExpiresAt = midnight.getTimeInMillis();
+        invalidateLayers();
+    }
+}
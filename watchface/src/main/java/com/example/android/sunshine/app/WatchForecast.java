@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.text.format.Time;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.TimeZone;
+
+/**
+ * The forecast sent by the phone: a few days of condition ids and temperatures in tenths of a
+ * degree Celsius, plus the units the user chose on the phone.  Icons come from our own resources.
+ *
+ * The phone sends either a full payload or a delta holding only the days that changed since an
+ * earlier payload, identified by its sequence number.  See {@link #apply} for how they are
+ * combined.  The layout must match the phone's WearableForecast:
+ * <pre>
+ *   byte   version
+ *   byte   type, {@link #TYPE_FULL} or {@link #TYPE_DELTA}
+ *   byte   flags, {@link #FLAG_METRIC}
+ *   int    sequence
+ *   int    sequence of the base payload (deltas only)
+ *   long   date of the first day, in millis
+ *   byte   number of days
+ *   full:  for each day, short weather id, short high, short low
+ *   delta: byte number of changed days, then for each of them byte index of the day, followed by
+ *          the day as in a full payload
+ * </pre>
+ */
+public class WatchForecast {
+
+    private static final byte VERSION = 1;
+    private static final byte TYPE_FULL = 0;
+    private static final byte TYPE_DELTA = 1;
+    private static final byte FLAG_METRIC = 1;
+
+    private static final int HEADER_SIZE = 1 + 1 + 1 + 4;
+    private static final int DAY_SIZE = 2 + 2 + 2;
+
+    private final int mSequence;
+    private final boolean mIsMetric;
+    private final long mFirstDate;
+    private final short[] mWeatherIds;
+    private final short[] mHighs;
+    private final short[] mLows;
+
+    private WatchForecast(int sequence, boolean isMetric, long firstDate, int days) {
+        mSequence = sequence;
+        mIsMetric = isMetric;
+        mFirstDate = firstDate;
+        mWeatherIds = new short[days];
+        mHighs = new short[days];
+        mLows = new short[days];
+    }
+
+    /**
+     * Applies a payload received from the phone.  A full payload replaces {@code current}
+     * altogether; a delta is only applied if it is based on {@code current}.
+     *
+     * @param current the forecast we have, or null if there is none yet
+     * @return the updated forecast, or null if the payload can't be applied, in which case the
+     *         phone has to be asked for a full one
+     */
+    public static WatchForecast apply(WatchForecast current, byte[] payload) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            if (buffer.get() != VERSION) {
+                return null;
+            }
+            byte type = buffer.get();
+            boolean isMetric = (buffer.get() & FLAG_METRIC) != 0;
+            int sequence = buffer.getInt();
+            if (type == TYPE_FULL) {
+                WatchForecast forecast =
+                        new WatchForecast(sequence, isMetric, buffer.getLong(), buffer.get());
+                for (int i = 0; i < forecast.getDayCount(); i++) {
+                    forecast.readDay(buffer, i);
+                }
+                return forecast;
+            } else if (type == TYPE_DELTA) {
+                int baseSequence = buffer.getInt();
+                long firstDate = buffer.getLong();
+                int days = buffer.get();
+                if (null == current || current.mSequence != baseSequence
+                        || current.mFirstDate != firstDate || current.getDayCount() != days) {
+                    return null;
+                }
+                WatchForecast forecast = new WatchForecast(sequence, isMetric, firstDate, days);
+                System.arraycopy(current.mWeatherIds, 0, forecast.mWeatherIds, 0, days);
+                System.arraycopy(current.mHighs, 0, forecast.mHighs, 0, days);
+                System.arraycopy(current.mLows, 0, forecast.mLows, 0, days);
+                int changed = buffer.get();
+                for (int i = 0; i < changed; i++) {
+                    forecast.readDay(buffer, buffer.get());
+                }
+                return forecast;
+            }
+            return null;
+        } catch (BufferUnderflowException | NegativeArraySizeException
+                | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the sequence number of a payload, or -1 if it is too short to have one
+     */
+    public static int readSequence(byte[] payload) {
+        return payload.length < HEADER_SIZE ? -1 : ByteBuffer.wrap(payload).getInt(3);
+    }
+
+    /**
+     * Reads a forecast stored with {@link #toBytes()}.
+     *
+     * @return the forecast, or null if it can't be read
+     */
+    public static WatchForecast fromBytes(byte[] bytes) {
+        return null == bytes ? null : apply(null, bytes);
+    }
+
+    /**
+     * @return the forecast as a full payload
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 8 + 1 + getDayCount() * DAY_SIZE);
+        buffer.put(VERSION)
+                .put(TYPE_FULL)
+                .put(mIsMetric ? FLAG_METRIC : 0)
+                .putInt(mSequence)
+                .putLong(mFirstDate)
+                .put((byte) getDayCount());
+        for (int i = 0; i < getDayCount(); i++) {
+            buffer.putShort(mWeatherIds[i])
+                    .putShort(mHighs[i])
+                    .putShort(mLows[i]);
+        }
+        return buffer.array();
+    }
+
+    private void readDay(ByteBuffer buffer, int day) {
+        mWeatherIds[day] = buffer.getShort();
+        mHighs[day] = buffer.getShort();
+        mLows[day] = buffer.getShort();
+    }
+
+    public int getSequence() {
+        return mSequence;
+    }
+
+    public int getDayCount() {
+        return mWeatherIds.length;
+    }
+
+    /**
+     * @return the index of the day containing {@code timeMillis}, or -1 if the forecast doesn't
+     *         cover it
+     */
+    public int getDay(long timeMillis) {
+        // Days start at local midnight, so they aren't always exactly a day apart
+        int day = getJulianDay(timeMillis) - getJulianDay(mFirstDate);
+        return day >= 0 && day < getDayCount() ? day : -1;
+    }
+
+    private static int getJulianDay(long timeMillis) {
+        long gmtoff = TimeZone.getDefault().getOffset(timeMillis) / 1000;
+        return Time.getJulianDay(timeMillis, gmtoff);
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public String getHigh(Context context, int day) {
+        return Utility.formatTemperature(context, mHighs[day], mIsMetric);
+    }
+
+    public String getLow(Context context, int day) {
+        return Utility.formatTemperature(context, mLows[day], mIsMetric);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Decodes the weather icons for {@link MyWatchFace} on a single background thread, directly at
+ * the size they are drawn at, and keeps the last few of them.
+ *
+ * Only the icon asked for last matters: asking for another one drops any decode still waiting,
+ * and a decode that finishes after a newer request isn't delivered.
+ */
+class WatchIconLoader {
+
+    private static final String TAG = WatchIconLoader.class.getSimpleName();
+
+    // A handful of 80x80 icons; the forecast rarely shows more than a few conditions
+    private static final int MAX_BYTES = 256 * 1024;
+
+    interface Callback {
+        /**
+         * Called on the main thread with the icon asked for last.
+         *
+         * @param icon the icon, or null if it couldn't be decoded
+         */
+        void onIconLoaded(int iconId, Bitmap icon);
+    }
+
+    private final Resources mResources;
+    private final int mSize;
+    private final HandlerThread mThread;
+    private final Handler mWorker;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final LruCache<Integer, Bitmap> mIcons = new LruCache<Integer, Bitmap>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(Integer iconId, Bitmap icon) {
+            return icon.getByteCount();
+        }
+    };
+
+    // The icon asked for last; only touched on the main thread
+    private int mRequestedId = -1;
+
+    /**
+     * @param size the width and height of the icons, in pixels
+     */
+    WatchIconLoader(Resources resources, int size) {
+        mResources = resources;
+        mSize = size;
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mWorker = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Loads an icon, calling back right away if it is cached.  Must be called on the main thread.
+     */
+    void load(final int iconId, final Callback callback) {
+        mRequestedId = iconId;
+        // Whatever was waiting has been superseded
+        mWorker.removeCallbacksAndMessages(null);
+
+        Bitmap cached = mIcons.get(iconId);
+        if (null != cached) {
+            callback.onIconLoaded(iconId, cached);
+            return;
+        }
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap icon = decode(iconId);
+                if (null != icon) {
+                    mIcons.put(iconId, icon);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (iconId == mRequestedId) {
+                            callback.onIconLoaded(iconId, icon);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Forgets the icon asked for last, so that a decode still running isn't delivered.
+     */
+    void cancel() {
+        mRequestedId = -1;
+        mWorker.removeCallbacksAndMessages(null);
+    }
+
+    void quit() {
+        cancel();
+        mMainHandler.removeCallbacksAndMessages(null);
+        mThread.quit();
+    }
+
+    private Bitmap decode(int iconId) {
+        // Read the size first, to only decode as many pixels as needed
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        options.inScaled = false;
+        BitmapFactory.decodeResource(mResources, iconId, options);
+
+        options.inSampleSize = 1;
+        while (options.outWidth / (options.inSampleSize * 2) >= mSize
+                && options.outHeight / (options.inSampleSize * 2) >= mSize) {
+            options.inSampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        Bitmap decoded = BitmapFactory.decodeResource(mResources, iconId, options);
+        if (null == decoded) {
+            Log.e(TAG, "Couldn't decode icon " + iconId);
+            return null;
+        }
+        if (decoded.getWidth() == mSize && decoded.getHeight() == mSize) {
+            return decoded;
+        }
+        Bitmap icon = Bitmap.createScaledBitmap(decoded, mSize, mSize, true);
+        decoded.recycle();
+        return icon;
+    }
+}
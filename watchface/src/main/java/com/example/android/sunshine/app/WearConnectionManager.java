@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The one {@link GoogleApiClient} of the watch, shared by everything that talks to the data
+ * layer.  Users {@link #acquireBlocking()} it while they need it and {@link #release()} it
+ * after; the connection is only dropped once nobody has needed it for
+ * {@link #GRACE_PERIOD_MILLIS}, so payloads arriving one after another, or the watch face reading
+ * the forecast right after one was stored, don't reconnect every time.
+ */
+public class WearConnectionManager implements
+        GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+
+    private static final String TAG = WearConnectionManager.class.getSimpleName();
+
+    private static final long GRACE_PERIOD_MILLIS = 60 * 1000;
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+
+    private static WearConnectionManager sInstance;
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Guarded by this, which is also held while connecting and disconnecting starts, so a
+    // reference taken while the grace period runs out is never left with a dropped connection
+    private int mReferences;
+    private int mConnectCount;
+
+    private final Runnable mDisconnect = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (WearConnectionManager.this) {
+                if (mReferences > 0) {
+                    return;
+                }
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Unused for " + GRACE_PERIOD_MILLIS + "ms, disconnecting");
+                }
+                mGoogleApiClient.disconnect();
+            }
+        }
+    };
+
+    public static synchronized WearConnectionManager getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new WearConnectionManager(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WearConnectionManager(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .addApi(Wearable.API)
+                .build();
+    }
+
+    public GoogleApiClient getClient() {
+        return mGoogleApiClient;
+    }
+
+    /**
+     * Takes a reference to the connection and waits until it is connected.  This must not be
+     * called on the main thread, and must be matched by a {@link #release()} whatever it
+     * returns.
+     *
+     * @return whether the client is connected
+     */
+    public boolean acquireBlocking() {
+        synchronized (this) {
+            mReferences++;
+            mHandler.removeCallbacks(mDisconnect);
+            if (mGoogleApiClient.isConnected()) {
+                return true;
+            }
+        }
+        // Not holding the lock while waiting; with a reference taken, nothing disconnects now
+        ConnectionResult result =
+                mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!result.isSuccess()) {
+            Log.e(TAG, "Failed to connect to GoogleApiClient: " + result);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gives back a reference; once the last one is given back the connection is dropped after the
+     * grace period, unless it is acquired again in the meantime.
+     */
+    public void release() {
+        synchronized (this) {
+            if (mReferences == 0) {
+                throw new IllegalStateException("Released more often than acquired");
+            }
+            if (--mReferences > 0) {
+                return;
+            }
+            mHandler.removeCallbacks(mDisconnect);
+            mHandler.postDelayed(mDisconnect, GRACE_PERIOD_MILLIS);
+        }
+    }
+
+    /**
+     * @return how many times the client connected in this process
+     */
+    public synchronized int getConnectCount() {
+        return mConnectCount;
+    }
+
+    @Override // GoogleApiClient.ConnectionCallbacks
+    public void onConnected(Bundle connectionHint) {
+        int connectCount;
+        synchronized (this) {
+            connectCount = ++mConnectCount;
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "onConnected, " + connectCount + " connections so far: " + connectionHint);
+        }
+    }
+
+    @Override  // GoogleApiClient.ConnectionCallbacks
+    public void onConnectionSuspended(int cause) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "onConnectionSuspended: " + cause);
+        }
+    }
+
+    @Override  // GoogleApiClient.OnConnectionFailedListener
+    public void onConnectionFailed(ConnectionResult result) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "onConnectionFailed: " + result);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The forecast on the watch.  The copy in memory is the one that counts: payloads from the phone
+ * are applied to it and the watch face reads it directly, and it is only written to our own node
+ * ({@link Utility#STATE_PATH}) so that it survives the process.  Writes are debounced, so a burst
+ * of payloads costs a single put, and the stored forecast is read once per process.
+ *
+ * All of the work with the data layer happens on one background thread, over the connection of
+ * {@link WearConnectionManager}.  The forecast stays in memory for the life of the process, so
+ * reconnecting never reads it again.
+ */
+public class WeatherStore {
+
+    private static final String TAG = WeatherStore.class.getSimpleName();
+
+    // Payloads arriving within this long of each other are written together
+    private static final long PERSIST_DELAY_MILLIS = 5000;
+
+    public interface Listener {
+        /**
+         * Called on the main thread whenever the forecast changed.
+         */
+        void onForecastChanged(WatchForecast forecast);
+    }
+
+    private static WeatherStore sInstance;
+
+    private final WearConnectionManager mConnections;
+    private final Handler mWorker;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Only touched on the main thread
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    // Guarded by this
+    private WatchForecast mForecast;
+    // Only touched on the worker thread
+    private boolean mLoaded;
+
+    private final Runnable mPersist = new Runnable() {
+        @Override
+        public void run() {
+            persist();
+        }
+    };
+
+    public static synchronized WeatherStore getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new WeatherStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WeatherStore(Context context) {
+        mConnections = WearConnectionManager.getInstance(context);
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mWorker = new Handler(thread.getLooper());
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * @return the forecast, or null if there is none (or it hasn't been read yet, in which case
+     *         listeners are told once it has)
+     */
+    public synchronized WatchForecast getForecast() {
+        return mForecast;
+    }
+
+    /**
+     * Must be called on the main thread.
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Must be called on the main thread.
+     */
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Applies a payload from the phone, asking the phone for the full forecast if it is a delta
+     * based on a payload we don't have.  This returns right away.
+     *
+     * @param phoneNodeId the node the payload came from
+     */
+    public void applyPayload(final String phoneNodeId, final byte[] payload) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                // A delta may be based on the stored forecast
+                load();
+
+                WatchForecast current = getForecast();
+                if (null != current
+                        && current.getSequence() == WatchForecast.readSequence(payload)) {
+                    // Already applied
+                    return;
+                }
+                WatchForecast updated = WatchForecast.apply(current, payload);
+                if (null == updated) {
+                    Log.d(TAG, "Can't apply the forecast, asking the phone for all of it");
+                    try {
+                        if (mConnections.acquireBlocking()) {
+                            Wearable.MessageApi.sendMessage(mConnections.getClient(), phoneNodeId,
+                                    Utility.RESYNC_PATH, null).await();
+                        }
+                    } finally {
+                        mConnections.release();
+                    }
+                    return;
+                }
+                setForecast(updated);
+                // Whatever is stored is older, so there's no reading it any more
+                mLoaded = true;
+                mWorker.removeCallbacks(mPersist);
+                mWorker.postDelayed(mPersist, PERSIST_DELAY_MILLIS);
+            }
+        });
+    }
+
+    private void setForecast(final WatchForecast forecast) {
+        synchronized (this) {
+            mForecast = forecast;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < mListeners.size(); i++) {
+                    mListeners.get(i).onForecastChanged(forecast);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the stored forecast, unless that has been done already or a payload has been applied
+     * since.  Runs on the worker thread.
+     */
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        try {
+            if (mConnections.acquireBlocking()) {
+                mLoaded = true;
+                load(mConnections.getClient());
+            }
+        } finally {
+            mConnections.release();
+        }
+    }
+
+    private void load(GoogleApiClient client) {
+        String localNodeId = Wearable.NodeApi.getLocalNode(client).await().getNode().getId();
+        Uri uri = new Uri.Builder()
+                .scheme("wear")
+                .path(Utility.STATE_PATH)
+                .authority(localNodeId)
+                .build();
+        DataApi.DataItemResult result = Wearable.DataApi.getDataItem(client, uri).await();
+        if (result.getStatus().isSuccess() && null != result.getDataItem()) {
+            WatchForecast stored = WatchForecast.fromBytes(DataMapItem
+                    .fromDataItem(result.getDataItem()).getDataMap()
+                    .getByteArray(Utility.FORECAST));
+            // Never over a payload applied while the stored forecast couldn't be read, which
+            // is newer
+            if (null != stored && null == getForecast()) {
+                setForecast(stored);
+            }
+        }
+    }
+
+    /**
+     * Writes the forecast to our node.  Runs on the worker thread.
+     */
+    private void persist() {
+        WatchForecast forecast = getForecast();
+        if (null == forecast) {
+            return;
+        }
+        try {
+            if (!mConnections.acquireBlocking()) {
+                return;
+            }
+            PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(Utility.STATE_PATH);
+            putDataMapRequest.getDataMap().putByteArray(Utility.FORECAST, forecast.toBytes());
+            DataApi.DataItemResult result = Wearable.DataApi.putDataItem(mConnections.getClient(),
+                    putDataMapRequest.asPutDataRequest()).await();
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "putDataItem result status: " + result.getStatus());
+            }
+        } finally {
+            mConnections.release();
+        }
+    }
+}